@@ -2,14 +2,19 @@ package tablut;
 
 import static java.lang.Math.*;
 
+import java.util.ArrayList;
 import java.util.List;
-
-
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import static tablut.Board.*;
 import static tablut.Piece.*;
 import static tablut.Square.*;
+import static tablut.TranspositionTable.*;
+import static tablut.Utils.*;
 
 /** A Player that automatically generates moves.
  *  @author Aarini
@@ -20,11 +25,19 @@ class AI extends Player {
      *  black if negative). */
     private static final int WINNING_VALUE = Integer.MAX_VALUE - 20;
     /** A position-score magnitude indicating a forced win in a subsequent
-     *  move.  This differs from WINNING_VALUE to avoid putting off wins. */
-    private static final int WILL_WIN_VALUE = Integer.MAX_VALUE - 40;
+     *  move.  This differs from WINNING_VALUE to avoid putting off wins:
+     *  a win found at ply P of a search scores WINNING_VALUE - P, which
+     *  always exceeds WILL_WIN_VALUE. */
+    private static final int WILL_WIN_VALUE =
+        WINNING_VALUE - MoveOrder.MAX_PLY - 1;
     /** A magnitude greater than a normal value. */
     private static final int INFTY = Integer.MAX_VALUE;
 
+    /** Default time allowed for choosing a move, in milliseconds: none,
+     *  so that without a time limit (such as Main's --time option) a move
+     *  is found by a search to the depth given by maxDepth. */
+    static final int DEFAULT_TIME_LIMIT = 0;
+
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
     AI() {
@@ -36,14 +49,124 @@ class AI extends Player {
         super(piece, controller);
     }
 
+    /** A new AI playing PIECE under control of CONTROLLER, with the
+     *  same settings as TEMPLATE. */
+    private AI(Piece piece, Controller controller, AI template) {
+        this(piece, controller);
+        _tableMegabytes = template._tableMegabytes;
+        _timeLimit = template._timeLimit;
+        _threads = template._threads;
+        _depthLimit = template._depthLimit;
+        _nullMove = template._nullMove;
+        _reductions = template._reductions;
+        _futility = template._futility;
+        _ponder = template._ponder;
+        _reportStats = template._reportStats;
+        _searchPermits = template._searchPermits;
+        _sharedTable = _table = template._sharedTable;
+        _searchExecutor = _pool = template._searchExecutor;
+    }
+
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /** Use transposition tables of MEGABYTES megabytes in AIs created from
+     *  this one. */
+    void setTableSize(int megabytes) {
+        _tableMegabytes = megabytes;
+    }
+
+    /** Return the size of the transposition tables of AIs created from
+     *  this one in megabytes. */
+    int tableSize() {
+        return _tableMegabytes;
+    }
+
+    /** Share TABLE among all AIs created from this one, rather than
+     *  allocating one for each, or give each its own if TABLE is null. */
+    void setTable(TranspositionTable table) {
+        _sharedTable = table;
+    }
+
+    /** Search with THREADS threads (at least 1) in AIs created from this
+     *  one. */
+    void setThreads(int threads) {
+        _threads = max(1, threads);
+    }
+
+    /** Return the number of threads with which I search. */
+    int threads() {
+        return _threads;
+    }
+
+    /** Allow MILLIS milliseconds for choosing each move, or unlimited time
+     *  (up to the depth given by maxDepth) if MILLIS is 0. */
+    void setTimeLimit(int millis) {
+        _timeLimit = millis;
+    }
+
+    /** Search to at most DEPTH levels in AIs created from this one, or to
+     *  a depth determined by the position if DEPTH is 0. */
+    void setDepthLimit(int depth) {
+        _depthLimit = depth;
+    }
+
+    /** Enable null-move pruning iff ON in AIs created from this one. */
+    void setNullMovePruning(boolean on) {
+        _nullMove = on;
+    }
+
+    /** Enable late-move reductions iff ON in AIs created from this one. */
+    void setReductions(boolean on) {
+        _reductions = on;
+    }
+
+    /** Enable futility pruning iff ON in AIs created from this one. */
+    void setFutilityPruning(boolean on) {
+        _futility = on;
+    }
+
+    /** Think on the opponent's time iff ON in AIs created from this
+     *  one. */
+    void setPondering(boolean on) {
+        _ponder = on;
+    }
+
+    /** Report the statistics of each search through my controller iff ON
+     *  in AIs created from this one. */
+    void setReportStats(boolean on) {
+        _reportStats = on;
+    }
+
+    /** Search in AIs created from this one only while holding PERMITS
+     *  (shared by all of them), one for each thread searching, so that
+     *  at most that many threads search at once, or without restriction
+     *  if PERMITS is null.  PERMITS must have at least as many permits
+     *  as my threads.  Pondering is skipped when no permit is free, and
+     *  holds its permit for at most my time limit. */
+    void setSearchPermits(Semaphore permits) {
+        _searchPermits = permits;
+    }
+
+    /** Run the helper threads of searches by AIs created from this one
+     *  on EXECUTOR, shared by all of them and not shut down by close, or
+     *  on threads of their own if EXECUTOR is null.  EXECUTOR should have
+     *  enough threads for all the helpers that may search at once (see
+     *  setSearchPermits). */
+    void setSearchExecutor(ExecutorService executor) {
+        _searchExecutor = executor;
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
+        Move move = findMove(board());
+        if (_reportStats) {
+            for (String line : _stats.report()) {
+                _controller.reportNote("%s", line);
+            }
+        }
         _controller.reportMove(move);
         return move.toString();
     }
@@ -53,79 +176,834 @@ class AI extends Player {
         return false;
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
-        Board b = new Board(board());
-        _lastFoundMove = null;
-        if (_myPiece == WHITE || _myPiece == KING) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else if (_myPiece == BLACK) {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove,
-                         int sense, int alpha, int beta) {
-        if (board.winner() != null || depth == 0) {
-            return staticScore(board);
+    /** Return the statistics of my last search. */
+    @Override
+    SearchStats searchStats() {
+        return _stats;
+    }
+
+    /** Return my transposition table, or null if I have not yet searched
+     *  and do not share one. */
+    TranspositionTable table() {
+        return _table;
+    }
+
+    /** Stop pondering, and shut down my helper and pondering threads,
+     *  unless they belong to a shared executor. */
+    @Override
+    void close() {
+        stopPondering();
+        if (_pool != null && _pool != _searchExecutor) {
+            _pool.shutdownNow();
+            _pool = null;
+        }
+        if (_ponderer != null) {
+            _ponderer.shutdownNow();
+            _ponderer = null;
+        }
+    }
+
+    /** Stop pondering.  If MOVE is null, a new game or position has been
+     *  set up, so forget the killer moves and history gathered in my
+     *  previous searches.  Otherwise, if pondering is enabled and MOVE is
+     *  my move, start pondering the resulting position (see ponder). */
+    @Override
+    void positionChanged(Move move) {
+        stopPondering();
+        Board board = board();
+        if (move == null) {
+            clearMoveOrder();
+        } else if (_ponder && board.winner() == null
+                   && board.turn() == _myPiece.opponent()) {
+            ponder(board);
+        }
+    }
+
+    /** Forget the results of all my previous searches, as before a game
+     *  unrelated to the last one.  A shared transposition table is left
+     *  alone, since other AIs are using it. */
+    void clear() {
+        stopPondering();
+        if (_table != null && _table != _sharedTable) {
+            _table.clear();
+        }
+        clearMoveOrder();
+    }
+
+    /** Forget the move-ordering information of all my searchers. */
+    private void clearMoveOrder() {
+        if (_searchers != null) {
+            for (Searcher searcher : _searchers) {
+                searcher._order.clear();
+            }
+        }
+    }
+
+    /** Start searching POSITION, in which my opponent is to move, in the
+     *  background until stopPondering is called or my time limit expires,
+     *  so that a pondering search holds its search permit no longer than
+     *  a search for a move would.  If _table records a
+     *  best move for my opponent, I search the position after that move
+     *  (the predicted reply) as for my next move.  Otherwise I search
+     *  POSITION itself, which records values for my replies to all of my
+     *  opponent's moves in _table. */
+    private void ponder(Board position) {
+        if (_searchPermits != null && !_searchPermits.tryAcquire()) {
+            return;
+        }
+        allocate();
+        if (_ponderer == null) {
+            _ponderer = Executors.newSingleThreadExecutor(r -> {
+                Thread ponderer = new Thread(r, "tablut-ponder");
+                ponderer.setDaemon(true);
+                return ponderer;
+            });
+        }
+        Searcher main = _searchers[0];
+        main.start(position);
+        long entry = _table.probe(position.key());
+        int predicted = entry == NONE ? 0 : move(entry);
+        if (predicted != 0 && position.isLegal(Move.mv(predicted))) {
+            main._board.makeMove(predicted);
+        }
+        Board pondered = main._board;
+        int sense = pondered.turn() == WHITE ? 1 : -1;
+        int limit = searchLimit(pondered);
+        _ponderKey = pondered.key();
+        _deadline = _timeLimit == 0 ? Long.MAX_VALUE
+            : System.nanoTime() + _timeLimit * NANOS_PER_MILLI;
+        _stopped = false;
+        _ponderTask = _ponderer.submit(() -> {
+            try {
+                long start = System.nanoTime();
+                Move best = main.search(1, limit, sense);
+                _ponderNanos = System.nanoTime() - start;
+                return best;
+            } finally {
+                if (_searchPermits != null) {
+                    _searchPermits.release();
+                }
+            }
+        });
+    }
+
+    /** Stop pondering, if I am.  If the pondering search finished by
+     *  itself (completing its depth or using up its time), its result is
+     *  kept in _ponderMove for findMove. */
+    private void stopPondering() {
+        if (_ponderTask != null) {
+            boolean finished = _ponderTask.isDone();
+            _stopped = true;
+            try {
+                Move best = _ponderTask.get();
+                _ponderMove = finished ? best : null;
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("pondering failed: "
+                                                + excp.getMessage());
+            }
+            _ponderTask = null;
+        }
+    }
+
+    /** Return a move from POSITION for the side to move, normally me,
+     *  assuming there is a move.  Searches to successively greater depths,
+     *  up to the limit given by searchLimit, until the time limit expires,
+     *  and returns the best move of the last search that completed.
+     *  Each search tries the best moves of the previous one (recorded in
+     *  _table) first.  If I have more than one thread, the other threads
+     *  concurrently search the same position (alternately one level
+     *  deeper), sharing _table, and stop when the first thread does.
+     *  Only the first thread's result is used, so the search is
+     *  deterministic with a single thread.  If I was pondering POSITION
+     *  and completed the search, returns the result of that search at
+     *  once.  Otherwise, first waits for a
+     *  search permit for each of my threads, if I have them (see
+     *  setSearchPermits). */
+    Move findMove(Board position) {
+        stopPondering();
+        Move pondered = _ponderMove;
+        _ponderMove = null;
+        if (pondered != null && position.key() == _ponderKey) {
+            collectStats(1, _ponderNanos);
+            return pondered;
+        }
+        if (_searchPermits != null) {
+            _searchPermits.acquireUninterruptibly(_threads);
+        }
+        try {
+            return bestMove(position);
+        } finally {
+            if (_searchPermits != null) {
+                _searchPermits.release(_threads);
+            }
+        }
+    }
+
+    /** Return a move for me from POSITION as for findMove, searching it
+     *  without regard to pondering or search permits. */
+    private Move bestMove(Board position) {
+        long start = System.nanoTime();
+        allocate();
+        int sense = position.turn() == WHITE ? 1 : -1;
+        int limit = searchLimit(position);
+        _deadline = _timeLimit == 0 ? Long.MAX_VALUE
+            : System.nanoTime() + _timeLimit * NANOS_PER_MILLI;
+        _stopped = false;
+        if (_threads > 1 && _pool == null) {
+            _pool = Executors.newFixedThreadPool(_threads - 1, r -> {
+                Thread helper = new Thread(r, "tablut-search");
+                helper.setDaemon(true);
+                return helper;
+            });
+        }
+        List<Future<Move>> helpers = new ArrayList<>();
+        for (int i = 1; i < _threads; i += 1) {
+            Searcher helper = _searchers[i];
+            int first = 1 + i % 2;
+            helper.start(position);
+            helpers.add(_pool.submit(() -> helper.search(first, limit,
+                                                         sense)));
+        }
+        Searcher main = _searchers[0];
+        main.start(position);
+        Move best = main.search(1, limit, sense);
+        _stopped = true;
+        for (Future<Move> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("search thread failed: "
+                                                + excp.getMessage());
+            }
+        }
+        if (best == null) {
+            best = main._board.legalMoves(main._board.turn()).get(0);
+        }
+        collectStats(_threads, System.nanoTime() - start);
+        return best;
+    }
+
+    /** Set _stats to the combined statistics of the searches of my first
+     *  THREADS searchers, the first of which made the iterations, and
+     *  which took NANOS nanoseconds. */
+    private void collectStats(int threads, long nanos) {
+        _stats.clear();
+        for (int i = 0; i < threads; i += 1) {
+            _stats.add(_searchers[i]._stats);
+        }
+        _stats.copyIterations(_searchers[0]._stats);
+        _stats.setTime(nanos);
+    }
+
+    /** Return the value of POSITION (positive values favoring white) found
+     *  by a search, on one thread, for the side to move in POSITION, or
+     *  its static score if the search completes no depth.  Uses my search
+     *  settings, but not my search permits, and ignores pondering.  The
+     *  best move found is then available from evaluatedMove. */
+    int evaluate(Board position) {
+        _evaluatedMove = null;
+        if (position.winner() != null) {
+            return staticScore(position);
+        }
+        allocate();
+        int sense = position.turn() == WHITE ? 1 : -1;
+        int limit = searchLimit(position);
+        _deadline = _timeLimit == 0 ? Long.MAX_VALUE
+            : System.nanoTime() + _timeLimit * NANOS_PER_MILLI;
+        _stopped = false;
+        Searcher main = _searchers[0];
+        main.start(position);
+        main._lastScore = staticScore(position);
+        _evaluatedMove = main.search(1, limit, sense);
+        _stopped = true;
+        return main._lastScore;
+    }
+
+    /** Return the best move found by the last call to evaluate, or null if
+     *  none was found. */
+    Move evaluatedMove() {
+        return _evaluatedMove;
+    }
+
+    /** Allocate my transposition table, unless it is shared, and search
+     *  states, if this is my first search. */
+    private void allocate() {
+        if (_table == null) {
+            _table = new TranspositionTable(_tableMegabytes);
+        }
+        if (_searchers == null) {
+            _searchers = new Searcher[_threads];
+            for (int i = 0; i < _threads; i += 1) {
+                _searchers[i] = new Searcher();
+            }
+        }
+    }
+
+    /** Return the maximum depth to which to search POSITION: my depth
+     *  limit, if I have one, and otherwise MoveOrder.MAX_PLY when my time
+     *  limit decides the depth reached, or maxDepth without a time
+     *  limit. */
+    private int searchLimit(Board position) {
+        int limit;
+        if (_depthLimit > 0) {
+            limit = _depthLimit;
+        } else if (_timeLimit > 0) {
+            limit = MoveOrder.MAX_PLY;
         } else {
+            limit = maxDepth(position);
+        }
+        return min(limit, MoveOrder.MAX_PLY);
+    }
+
+    /** Size of my transposition table in megabytes. */
+    private int _tableMegabytes = DEFAULT_MEGABYTES;
+
+    /** Positions searched so far, allocated on my first move (unless
+     *  shared) and shared by all my threads. */
+    private TranspositionTable _table;
+
+    /** Table shared by all AIs created from me, or null if each has its
+     *  own. */
+    private TranspositionTable _sharedTable;
+
+    /** Number of threads searching for each move. */
+    private int _threads = 1;
+
+    /** The per-thread search states, the first used by the thread that
+     *  calls findMove, allocated on my first move. */
+    private Searcher[] _searchers;
+
+    /** Threads running _searchers[1..], allocated on my first search
+     *  with more than one thread (unless shared), or null. */
+    private ExecutorService _pool;
+
+    /** Threads running the helpers of all AIs created from me, or null
+     *  if each has its own. */
+    private ExecutorService _searchExecutor;
+
+    /** Maximum search depth, or 0 if determined by maxDepth. */
+    private int _depthLimit;
+
+    /** The best move found by the last call to evaluate, or null. */
+    private Move _evaluatedMove;
+
+    /** True iff null-move pruning, late-move reductions, and futility
+     *  pruning (respectively) are enabled. */
+    private boolean _nullMove = true, _reductions = true, _futility = true;
+
+    /** True iff I think on my opponent's time. */
+    private boolean _ponder;
+
+    /** Thread that ponders, allocated when I first ponder. */
+    private ExecutorService _ponderer;
+
+    /** The pondering search in progress, or null if none.  It returns the
+     *  best move of the last depth it completed, or null if none. */
+    private Future<Move> _ponderTask;
+
+    /** Key of the position searched by the last pondering search. */
+    private long _ponderKey;
+
+    /** The result of the last pondering search, if it completed and has
+     *  not yet been used, or null. */
+    private Move _ponderMove;
+
+    /** Duration of the last pondering search in nanoseconds. */
+    private long _ponderNanos;
+
+    /** Statistics of my last search. */
+    private final SearchStats _stats = new SearchStats();
+
+    /** True iff I report _stats after each move. */
+    private boolean _reportStats;
+
+    /** Permits to search shared with other AIs, or null if my searches
+     *  are unrestricted. */
+    private Semaphore _searchPermits;
+
+    /** Time allowed per move in milliseconds, or 0 for no limit. */
+    private int _timeLimit = DEFAULT_TIME_LIMIT;
+
+    /** Value of System.nanoTime() at which the current search must
+     *  stop. */
+    private long _deadline;
+
+    /** True iff the current search has been stopped for lack of time,
+     *  or (for helper threads) because the first thread has finished.
+     *  The results of a stopped search are not used. */
+    private volatile boolean _stopped;
+
+    /** Half the width of the first aspiration window of a search, and
+     *  the factor by which the widening of the window grows. */
+    private static final int ASPIRATION_WINDOW = 50, ASPIRATION_GROWTH = 4;
+
+    /** Null moves are tried only at depths of at least
+     *  NULL_MOVE_MIN_DEPTH, by a side with at least NULL_MOVE_MIN_PIECES
+     *  pieces, and are searched NULL_MOVE_REDUCTION levels less deeply
+     *  than other moves. */
+    private static final int NULL_MOVE_MIN_DEPTH = 3, NULL_MOVE_MIN_PIECES = 4,
+        NULL_MOVE_REDUCTION = 2;
+
+    /** Late quiet moves are reduced at depths of at least LMR_MIN_DEPTH
+     *  once LMR_MIN_MOVES moves have been searched, and reduced further
+     *  after LMR_LATE_MOVES moves. */
+    private static final int LMR_MIN_DEPTH = 3, LMR_MIN_MOVES = 4,
+        LMR_LATE_MOVES = 16;
+
+    /** Futility pruning applies at depths up to FUTILITY_DEPTH, to quiet
+     *  moves at nodes whose static score is more than FUTILITY_MARGIN
+     *  times the depth outside the window. */
+    private static final int FUTILITY_DEPTH = 2, FUTILITY_MARGIN = 100;
+
+    /** Number of calls to outOfTime between readings of the clock. */
+    private static final int CLOCK_INTERVAL = 1024;
+
+    /** The state of one thread's search: its copy of the board being
+     *  searched and the move-ordering information it has gathered. */
+    private class Searcher {
+
+        /** Prepare to search a copy of POSITION. */
+        void start(Board position) {
+            _board.copy(position);
+            _order.newSearch();
+            _stats.clear();
+            _startTime = System.nanoTime();
+        }
+
+        /** Search my board at depths FIRST .. LIMIT until the search is
+         *  stopped or finds a forced win for either side, for the side
+         *  indicated by SENSE (as for findMove).  Return the best move of
+         *  the last depth completed, or null if none was, and record its
+         *  value in _lastScore. */
+        Move search(int first, int limit, int sense) {
+            int best = 0;
+            int score = 0;
+            for (int depth = first; depth <= limit; depth += 1) {
+                score = aspirationSearch(depth, sense, score,
+                                         depth > first);
+                if (_stopped) {
+                    break;
+                }
+                _stats.iteration(depth, System.nanoTime() - _startTime);
+                best = _lastFoundMove;
+                _lastScore = score;
+                if (abs(score) > WILL_WIN_VALUE) {
+                    break;
+                }
+            }
+            return best == 0 ? null : Move.mv(best);
+        }
+
+        /** Search my board to DEPTH for the side indicated by SENSE, and
+         *  return its value.  If USEGUESS, first searches a window of
+         *  width 2 * ASPIRATION_WINDOW around GUESS (an aspiration window),
+         *  widening the window on whichever side the value falls outside it
+         *  by successively larger amounts and searching again. */
+        private int aspirationSearch(int depth, int sense, int guess,
+                                     boolean useGuess) {
+            long delta = ASPIRATION_WINDOW;
+            long alpha = -INFTY, beta = INFTY;
+            if (useGuess && abs(guess) <= WILL_WIN_VALUE) {
+                alpha = max(-INFTY, guess - delta);
+                beta = min(INFTY, guess + delta);
+            }
+            while (true) {
+                _lastFoundMove = 0;
+                int value = findMove(_board, depth, 0, true, sense,
+                                     (int) alpha, (int) beta);
+                if (_stopped) {
+                    return value;
+                } else if (value <= alpha && alpha > -INFTY) {
+                    alpha = max(-INFTY, value - delta);
+                } else if (value >= beta && beta < INFTY) {
+                    beta = min(INFTY, value + delta);
+                } else {
+                    return value;
+                }
+                delta *= ASPIRATION_GROWTH;
+            }
+        }
+
+        /** Return true iff the current search has been stopped, checking
+         *  the clock once every CLOCK_INTERVAL calls. */
+        private boolean outOfTime() {
+            if (!_stopped) {
+                _clockCount += 1;
+                if (_clockCount % CLOCK_INTERVAL == 0
+                    && System.nanoTime() > _deadline) {
+                    _stopped = true;
+                }
+            }
+            return _stopped;
+        }
+
+        /** Find a move from position BOARD at ply PLY of the search and
+         *  return its value, recording
+         *  the move found in _lastFoundMove iff SAVEMOVE. The move
+         *  should have maximal value or have value > BETA if SENSE==1,
+         *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
+         *  DEPTH levels.  Searching at level 0 continues with quiesce,
+         *  and does not set _lastMoveFound.
+         *  Results are recorded in, and (except when SAVEMOVE) taken from,
+         *  _table, and moves are tried in the order given by _order.  The
+         *  first move is searched with the full window and the others
+         *  with null windows (principal variation search; see searchMove).
+         *  Unless the king threatens to escape, the search may be cut short
+         *  by a null move (see nullMoveCutoff), and at depths up to
+         *  FUTILITY_DEPTH, quiet moves (see quiet) are skipped when the
+         *  static score is too far outside the window for them to matter.
+         *  A side with no legal moves (as after a null move) has lost.
+         *  Once the search is stopped, returns a meaningless value. */
+        private int findMove(Board board, int depth, int ply,
+                             boolean saveMove, int sense, int alpha,
+                             int beta) {
+            if (board.winner() != null) {
+                return winScore(board, ply);
+            } else if (depth <= 0) {
+                return quiesce(board, sense, alpha, beta, ply, true);
+            }
+            if (outOfTime()) {
+                return 0;
+            }
+            _stats.node();
+            if (!saveMove) {
+                int bound = WINNING_VALUE - ply - 1;
+                if (-bound >= beta) {
+                    return -bound;
+                } else if (bound <= alpha) {
+                    return bound;
+                }
+            }
+            int alpha0 = alpha, beta0 = beta;
+            long key = board.key();
+            long entry = _table.probe(key);
+            _stats.probe(entry != NONE);
+            if (!saveMove && entry != NONE && depth(entry) >= depth) {
+                int score = fromTable(score(entry), ply);
+                switch (bound(entry)) {
+                case EXACT:
+                    return score;
+                case LOWER:
+                    alpha = max(alpha, score);
+                    break;
+                default:
+                    beta = min(beta, score);
+                    break;
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+            boolean selective = !saveMove && board.kingEdgePaths() == 0
+                && abs(alpha) < WILL_WIN_VALUE && abs(beta) < WILL_WIN_VALUE;
+            int eval = 0;
+            if (selective && (depth <= FUTILITY_DEPTH
+                              || depth >= NULL_MOVE_MIN_DEPTH)) {
+                eval = staticScore(board);
+            }
+            if (selective && nullMoveCutoff(board, depth, ply, sense, alpha,
+                                            beta, eval)) {
+                return sense == 1 ? beta : alpha;
+            }
+            boolean futile = selective && _futility && depth <= FUTILITY_DEPTH
+                && (sense == 1 ? eval + FUTILITY_MARGIN * depth <= alpha
+                    : eval - FUTILITY_MARGIN * depth >= beta);
+            int bestMove = 0;
+            int[] moves = _moves[ply];
+            int n = board.legalMoves(sense == 1 ? WHITE : BLACK, moves);
+            if (n == 0) {
+                return -sense * (WINNING_VALUE - ply);
+            }
+            _order.order(board, moves, n, move(entry), ply);
+            int value;
             if (sense == 1) {
                 int best = -INFTY;
-                for (Move next : board.legalMoves(WHITE)) {
-                    Board b = new Board(board);
-                    b.makeMove(next);
-                    int response = findMove(b, depth - 1,
-                            false, -sense, alpha, beta);
+                for (int i = 0; i < n; i += 1) {
+                    int next = moves[i];
+                    boolean quiet = quiet(board, next);
+                    if (futile && i > 0 && quiet) {
+                        best = max(best, eval + FUTILITY_MARGIN * depth);
+                        continue;
+                    }
+                    int reduction =
+                        selective && quiet ? reduction(depth, i) : 0;
+                    board.makeMove(next);
+                    int response = searchMove(board, depth, ply, sense,
+                                              alpha, beta, i == 0,
+                                              reduction);
+                    board.undo();
                     if (response > best) {
                         best = response;
-                        if (saveMove) {
-                            _lastFoundMove = next;
-                        }
+                        bestMove = next;
                         alpha = max(alpha, best);
-                        if (alpha > beta) {
+                        if (alpha >= beta) {
+                            _order.cutoff(board, next, WHITE, ply, depth);
+                            _stats.cutoff(i == 0);
                             break;
                         }
                     }
                 }
-                return best;
-
+                value = best;
             } else if (sense == -1) {
                 int worst = INFTY;
-                for (Move next : board.legalMoves(BLACK)) {
-                    Board b = new Board(board);
-                    b.makeMove(next);
-                    int response = findMove(b, depth - 1,
-                            false, -sense, alpha, beta);
+                for (int i = 0; i < n; i += 1) {
+                    int next = moves[i];
+                    boolean quiet = quiet(board, next);
+                    if (futile && i > 0 && quiet) {
+                        worst = min(worst, eval - FUTILITY_MARGIN * depth);
+                        continue;
+                    }
+                    int reduction =
+                        selective && quiet ? reduction(depth, i) : 0;
+                    board.makeMove(next);
+                    int response = searchMove(board, depth, ply, sense,
+                                              alpha, beta, i == 0,
+                                              reduction);
+                    board.undo();
                     if (response < worst) {
                         worst = response;
-                        if (saveMove) {
-                            _lastFoundMove = next;
-                        }
+                        bestMove = next;
                         beta = min(beta, worst);
-                        if (alpha > beta) {
+                        if (alpha >= beta) {
+                            _order.cutoff(board, next, BLACK, ply, depth);
+                            _stats.cutoff(i == 0);
                             break;
                         }
                     }
                 }
-                return worst;
+                value = worst;
             } else {
                 throw new Error("Wrong sense provided.");
             }
+            if (_stopped) {
+                return value;
+            }
+            if (saveMove) {
+                _lastFoundMove = bestMove;
+            }
+            int bound =
+                value <= alpha0 ? UPPER : value >= beta0 ? LOWER : EXACT;
+            _table.store(key, depth, bound, toTable(value, ply), bestMove);
+            _stats.store();
+            return value;
+        }
+
+        /** Return the value of BOARD, just after a move by the side
+         *  indicated by SENSE at ply PLY of a search to DEPTH, as for
+         *  findMove with window ALPHA .. BETA.  If FIRST, the move is
+         *  searched with the full window.  Otherwise it is first searched
+         *  with a null window at the bound that SENSE must improve on,
+         *  reduced by REDUCTION levels, and searched again at full depth
+         *  if the reduced search suggests the move improves on that bound,
+         *  and then with the full window if the value lies inside it. */
+        private int searchMove(Board board, int depth, int ply, int sense,
+                               int alpha, int beta, boolean first,
+                               int reduction) {
+            if (first) {
+                return findMove(board, depth - 1, ply + 1, false, -sense,
+                                alpha, beta);
+            }
+            int low = sense == 1 ? alpha : beta - 1;
+            int response = findMove(board, depth - 1 - reduction, ply + 1,
+                                    false, -sense, low, low + 1);
+            if (reduction > 0
+                && (sense == 1 ? response > alpha : response < beta)) {
+                response = findMove(board, depth - 1, ply + 1, false,
+                                    -sense, low, low + 1);
+            }
+            if (response > alpha && response < beta) {
+                response = findMove(board, depth - 1, ply + 1, false,
+                                    -sense, alpha, beta);
+            }
+            return response;
         }
+
+        /** Return true iff a null move shows that the value of BOARD at
+         *  ply PLY of a search to DEPTH, for the side indicated by SENSE,
+         *  falls outside ALPHA .. BETA in that side's favor, given that the
+         *  static score of BOARD is EVAL.  If the side to move can pass and
+         *  a search reduced by NULL_MOVE_REDUCTION still fails high (for
+         *  white; low for black), a real move is assumed to do at least as
+         *  well, which is verified by a search of BOARD itself reduced by
+         *  the same amount without null moves.  Null moves are not tried
+         *  when the side to move has few pieces, where passing may be
+         *  better than any move (zugzwang), or right after another null
+         *  move. */
+        private boolean nullMoveCutoff(Board board, int depth, int ply,
+                                       int sense, int alpha, int beta,
+                                       int eval) {
+            Piece side = sense == 1 ? WHITE : BLACK;
+            if (!_nullMove || depth < NULL_MOVE_MIN_DEPTH || _noNullMove[ply]
+                || board.pieceCount(side) < NULL_MOVE_MIN_PIECES
+                || (sense == 1 ? eval < beta : eval > alpha)) {
+                return false;
+            }
+            int low = sense == 1 ? beta - 1 : alpha;
+            int reduced = depth - 1 - NULL_MOVE_REDUCTION;
+            board.makeNullMove();
+            _noNullMove[ply + 1] = true;
+            int value =
+                findMove(board, reduced, ply + 1, false, -sense, low,
+                         low + 1);
+            _noNullMove[ply + 1] = false;
+            board.undoNullMove();
+            if (_stopped || (sense == 1 ? value < beta : value > alpha)) {
+                return false;
+            }
+            _noNullMove[ply] = true;
+            value = findMove(board, reduced + 1, ply, false, sense, low,
+                             low + 1);
+            _noNullMove[ply] = false;
+            return !_stopped && (sense == 1 ? value >= beta : value <= alpha);
+        }
+
+        /** Return true iff MOVE, which is legal on BOARD, is quiet: a move
+         *  that cannot capture by a piece other than the king. */
+        private boolean quiet(Board board, int move) {
+            return Move.fromIndex(move) != board.kingIndex()
+                && !board.mayCapture(move);
+        }
+
+        /** Return the number of levels by which to reduce the search of
+         *  the quiet move searched Ith at a node searched to DEPTH (late
+         *  move reduction): none for the first LMR_MIN_MOVES moves or
+         *  at depths below LMR_MIN_DEPTH, and more for moves searched
+         *  very late. */
+        private int reduction(int depth, int i) {
+            if (!_reductions || depth < LMR_MIN_DEPTH || i < LMR_MIN_MOVES) {
+                return 0;
+            } else if (i < LMR_LATE_MOVES || depth < LMR_MIN_DEPTH + 2) {
+                return 1;
+            }
+            return 2;
+        }
+
+        /** Return the value of BOARD at ply PLY for the side indicated by
+         *  SENSE, as for findMove, searching only tactical moves: those that
+         *  may capture and, if FIRST (at the first ply of quiescence), king
+         *  moves that threaten an escape.
+         *  The side to move may instead accept the static score ("stand
+         *  pat"), so the result lies between the static score and the best
+         *  tactical line, and positions whose static score already lies
+         *  outside ALPHA .. BETA are not searched further. */
+        private int quiesce(Board board, int sense, int alpha, int beta,
+                            int ply, boolean first) {
+            _stats.quiescenceNode();
+            if (board.winner() != null) {
+                return winScore(board, ply);
+            }
+            int standPat = staticScore(board);
+            if (ply >= MoveOrder.MAX_PLY) {
+                return standPat;
+            }
+            if (outOfTime()) {
+                return 0;
+            }
+            if (sense == 1) {
+                if (standPat >= beta) {
+                    return standPat;
+                }
+                alpha = max(alpha, standPat);
+            } else {
+                if (standPat <= alpha) {
+                    return standPat;
+                }
+                beta = min(beta, standPat);
+            }
+            Piece side = sense == 1 ? WHITE : BLACK;
+            int kingIndex = side == WHITE && first ? board.kingIndex() : -1;
+            int[] moves = _moves[ply];
+            int n = board.legalMoves(side, moves);
+            int best = standPat;
+            for (int i = 0; i < n; i += 1) {
+                int move = moves[i];
+                if (!board.mayCapture(move)
+                    && (Move.fromIndex(move) != kingIndex
+                        || !board.threatensEscape(move))) {
+                    continue;
+                }
+                board.makeMove(move);
+                int value =
+                    quiesce(board, -sense, alpha, beta, ply + 1, false);
+                board.undo();
+                if (sense == 1 && value > best) {
+                    best = value;
+                    alpha = max(alpha, best);
+                } else if (sense == -1 && value < best) {
+                    best = value;
+                    beta = min(beta, best);
+                }
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+            return best;
+        }
+
+        /** Return the score of BOARD, on which the game has been won at
+         *  ply PLY of the search.  Wins at later plies have smaller
+         *  magnitudes, so that quicker wins and slower losses are
+         *  preferred. */
+        private int winScore(Board board, int ply) {
+            int score = WINNING_VALUE - ply;
+            return board.winner() == WHITE ? score : -score;
+        }
+
+        /** The board I search. */
+        private final Board _board = new Board();
+
+        /** Killer moves and history used to order the moves searched. */
+        private final MoveOrder _order = new MoveOrder();
+
+        /** The value of the last depth completed by search. */
+        private int _lastScore;
+
+        /** The encoding of the move found by the last call to findMove
+         *  with SAVEMOVE, or 0 if none. */
+        private int _lastFoundMove;
+
+        /** _moves[p] holds the moves being searched at ply p. */
+        private final int[][] _moves =
+            new int[MoveOrder.MAX_PLY][Board.MAX_MOVES];
+
+        /** Statistics of my current or last search. */
+        private final SearchStats _stats = new SearchStats();
+
+        /** Value of System.nanoTime() at the start of my search. */
+        private long _startTime;
+
+        /** _noNullMove[p] is true iff null moves may not be tried at
+         *  ply p. */
+        private final boolean[] _noNullMove =
+            new boolean[MoveOrder.MAX_PLY + 1];
+
+        /** Number of calls to outOfTime so far. */
+        private int _clockCount;
     }
 
+    /** Return SCORE, the value of a position at ply PLY of a search,
+     *  as stored in a transposition table: scores of wins are made
+     *  relative to the position rather than the root, and limited to
+     *  magnitude WINNING_VALUE. */
+    private static int toTable(int score, int ply) {
+        if (score > WILL_WIN_VALUE) {
+            return (int) min((long) score + ply, WINNING_VALUE);
+        } else if (score < -WILL_WIN_VALUE) {
+            return (int) max((long) score - ply, -WINNING_VALUE);
+        }
+        return score;
+    }
+
+    /** Return the value at ply PLY of a search of a position whose value
+     *  is stored in a transposition table as SCORE (see toTable). */
+    private static int fromTable(int score, int ply) {
+        if (score > WILL_WIN_VALUE) {
+            return score - ply;
+        } else if (score < -WILL_WIN_VALUE) {
+            return score + ply;
+        }
+        return score;
+    }
 
     /** Return a heuristically determined maximum search depth
      *  based on characteristics of BOARD. */
@@ -133,59 +1011,38 @@ class AI extends Player {
         if (board.moveLimit() > 0) {
             return board.moveLimit();
         }
-        int n = board.legalMoves(board.turn()).size();
+        int n = board.mobility(board.turn());
         return (n / ((10 * 3) + 8)) + 1;
     }
 
-    /** Return a heuristic value for BOARD. */
+    /** Return a heuristic value for BOARD, positive values favoring
+     *  white.  Counts material and mobility, penalizes black pieces next
+     *  to the king, and rewards the king's open paths to the edge.  An
+     *  open path with white to move, or two open paths with black to move,
+     *  cannot be stopped by blocking.  Each term takes constant time per
+     *  piece, using the board's occupancy masks and ray tables. */
     private int staticScore(Board board) {
-        int wScore = 0;
-        int bScore = 0;
         if (board.winner() == WHITE) {
             return WINNING_VALUE;
         } else if (board.winner() == BLACK) {
             return -WINNING_VALUE;
         }
-        for (int i = 0; i < NUM_SQUARES; i++) {
-            for (int j = 0; j < NUM_SQUARES; j++) {
-                if (board.get(sq(i)) == KING) {
-                    if (sq(i).isRookMove(sq(j)) && sq(j).isEdge()) {
-                        if (board.turn() == WHITE) {
-                            wScore += 1000;
-                        } else {
-                            wScore += 100;
-                        }
-                    }
-                }
-            }
-        }
-        if (board.get(THRONE) != KING || board.get(NTHRONE) != KING
-                || board.get(ETHRONE) != KING || board.get(STHRONE) != KING
-                || board.get(WTHRONE) != KING) {
-            bScore += 10;
-        }
-        Square[] sq = new Square[] {NTHRONE, ETHRONE, WTHRONE, STHRONE};
-        int x = 0;
-        for (Square s : sq) {
-            if (board.get(s) == BLACK) {
-                x++;
-            }
-        }
-        if (board.get(THRONE) == KING) {
-            bScore += (x * 5);
-        }
-        List<Move> object1 = board.legalMoves(BLACK);
-        for (Move M :  object1) {
-            bScore++;
-        }
-        List<Move> object = board.legalMoves(WHITE);
-        for (Move M : object) {
-            wScore++;
+        int score = WHITE_PIECE_VALUE * board.pieceCount(WHITE)
+            - BLACK_PIECE_VALUE * board.pieceCount(BLACK)
+            + board.mobility(WHITE) - board.mobility(BLACK)
+            - KING_ATTACKER_VALUE * board.kingAttackers();
+        int paths = board.kingEdgePaths();
+        if (paths > 1 || (paths == 1 && board.turn() == WHITE)) {
+            score += KING_ESCAPE_VALUE;
+        } else {
+            score += OPEN_PATH_VALUE * paths;
         }
-        return wScore - bScore;
-
+        return score;
     }
 
-}
-
+    /** Weights of the terms of staticScore. */
+    private static final int WHITE_PIECE_VALUE = 30, BLACK_PIECE_VALUE = 15,
+        KING_ATTACKER_VALUE = 25, OPEN_PATH_VALUE = 100,
+        KING_ESCAPE_VALUE = 5000;
 
+}
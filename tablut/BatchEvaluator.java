@@ -0,0 +1,232 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import ucb.util.CommandArgs;
+
+import static tablut.Piece.*;
+import static tablut.Utils.*;
+
+/** Evaluation of many positions at once, each by a search of a fixed
+ *  depth or time, on a pool of threads.  Each thread reuses one Board
+ *  and one AI, with its transposition table, for all the positions it
+ *  searches.  Positions are taken from a stream as results are consumed,
+ *  with at most a few per thread searched or waiting ahead of the
+ *  consumer, and results are returned in the order of the positions.
+ *  Run as a program, evaluates the positions on the lines of the standard
+ *  input, writing comma-separated results on the standard output.
+ *  @author aarini
+ */
+public final class BatchEvaluator {
+
+    /** Evaluate the positions, in the format of Board.encodedBoard, on the
+     *  lines of the standard input, writing one line per position:
+     *  POSITION,MOVE,SCORE, where MOVE is the best move (empty if none),
+     *  and SCORE is positive when white is ahead, or POSITION,,,ERROR for
+     *  an invalid position.  The options --depth=N and --time=MILLIS give
+     *  the search limits for each position, --threads=N the number of
+     *  threads (by default, one per processor), and --hash=MB the size of
+     *  each thread's transposition table. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--depth=(\\d+){0,1} --time=(\\d+){0,1}"
+                            + " --threads=(\\d+){0,1} --hash=(\\d+){0,1}",
+                            args);
+        if (!options.ok()) {
+            System.err.println("Usage: java tablut.BatchEvaluator"
+                               + " [--depth=N] [--time=MILLIS]"
+                               + " [--threads=N] [--hash=MB] < POSITIONS");
+            System.exit(1);
+        }
+        AI template = new AI();
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            template.setDepthLimit(intOption(options, "--depth",
+                                             DEFAULT_DEPTH));
+            template.setTimeLimit(intOption(options, "--time", 0));
+            template.setTableSize(
+                intOption(options, "--hash",
+                          TranspositionTable.DEFAULT_MEGABYTES));
+            threads = intOption(options, "--threads", threads);
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: number too large");
+            System.exit(1);
+        }
+        BufferedReader input =
+            new BufferedReader(new InputStreamReader(System.in));
+        BatchEvaluator evaluator = new BatchEvaluator(template, threads);
+        try (Stream<Result> results =
+             evaluator.evaluate(input.lines().map(String::trim)
+                                .filter(line -> !line.isEmpty()))) {
+            results.forEach(result -> System.out.println(result));
+        }
+        System.out.flush();
+    }
+
+    /** An evaluator that searches with THREADS threads (at least 1), each
+     *  using an AI created from TEMPLATE, whose settings (depth and time
+     *  limits, table size, and pruning) apply to each position.  Each AI
+     *  searches on one thread, whatever the setting of TEMPLATE. */
+    BatchEvaluator(AI template, int threads) {
+        _template = template;
+        _threads = Math.max(1, threads);
+    }
+
+    /** Return a stream of the results of evaluating POSITIONS, in the
+     *  format of Board.encodedBoard, in the same order.  The stream reads
+     *  POSITIONS only as its results are consumed, and must be closed
+     *  (closing POSITIONS) to release its threads. */
+    Stream<Result> evaluate(Stream<String> positions) {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads, r -> {
+            Thread worker = new Thread(r, "tablut-batch");
+            worker.setDaemon(true);
+            return worker;
+        });
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+        Iterator<String> input = positions.iterator();
+        Iterator<Result> results = new Iterator<Result>() {
+            @Override
+            public boolean hasNext() {
+                fill();
+                return !_pending.isEmpty();
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return _pending.remove().get();
+                } catch (InterruptedException | ExecutionException excp) {
+                    throw new IllegalStateException("evaluation failed: "
+                                                    + excp.getMessage());
+                }
+            }
+
+            /** Submit positions from INPUT until QUEUED_PER_THREAD per
+             *  thread are pending, or INPUT is exhausted. */
+            private void fill() {
+                while (_pending.size() < QUEUED_PER_THREAD * _threads
+                       && input.hasNext()) {
+                    String position = input.next();
+                    _pending.add(pool.submit(() -> workers.get()
+                                             .evaluate(position)));
+                }
+            }
+
+            /** Results of the positions submitted but not yet returned, in
+             *  order. */
+            private final Queue<Future<Result>> _pending = new ArrayDeque<>();
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                                        results, Spliterator.ORDERED
+                                        | Spliterator.NONNULL), false)
+            .onClose(() -> {
+                pool.shutdownNow();
+                positions.close();
+            });
+    }
+
+    /** The evaluation of one position. */
+    static final class Result {
+        /** The result for POSITION: a search found MOVE (null if none) with
+         *  value SCORE, or failed with ERROR if ERROR is not null. */
+        Result(String position, Move move, int score, String error) {
+            _position = position;
+            _move = move;
+            _score = score;
+            _error = error;
+        }
+
+        /** Return the position evaluated, as given. */
+        String position() {
+            return _position;
+        }
+
+        /** Return the best move found, or null if none. */
+        Move move() {
+            return _move;
+        }
+
+        /** Return the value of the position (positive values favoring
+         *  white). */
+        int score() {
+            return _score;
+        }
+
+        /** Return a description of why the position could not be
+         *  evaluated, or null if it was. */
+        String error() {
+            return _error;
+        }
+
+        @Override
+        public String toString() {
+            if (_error != null) {
+                return String.format("%s,,,%s", _position, _error);
+            }
+            return String.format("%s,%s,%d", _position,
+                                 _move == null ? "" : _move, _score);
+        }
+
+        /** The position. */
+        private final String _position;
+        /** The best move, or null. */
+        private final Move _move;
+        /** The value of _position. */
+        private final int _score;
+        /** The reason evaluation failed, or null. */
+        private final String _error;
+    }
+
+    /** The Board and AI of one thread. */
+    private class Worker {
+        /** A worker with a searcher configured by my template, but
+         *  searching on one thread. */
+        Worker() {
+            _ai = (AI) _template.create(WHITE, null);
+            _ai.setThreads(1);
+        }
+
+        /** Return the result of evaluating POSITION. */
+        Result evaluate(String position) {
+            try {
+                _board.setPosition(position);
+            } catch (IllegalArgumentException excp) {
+                return new Result(position, null, 0, excp.getMessage());
+            }
+            int score = _ai.evaluate(_board);
+            return new Result(position, _ai.evaluatedMove(), score, null);
+        }
+
+        /** The board on which positions are set up. */
+        private final Board _board = new Board();
+        /** The searcher. */
+        private final AI _ai;
+    }
+
+    /** Default search depth for each position. */
+    static final int DEFAULT_DEPTH = 4;
+
+    /** Number of positions that may be pending, per thread. */
+    private static final int QUEUED_PER_THREAD = 4;
+
+    /** Template of the AIs of all threads. */
+    private final AI _template;
+    /** Number of threads. */
+    private final int _threads;
+}
@@ -0,0 +1,240 @@
+package tablut;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import ucb.util.CommandArgs;
+
+import static tablut.Utils.*;
+
+/** Microbenchmarks of the Board and AI operations on which search time
+ *  depends, each measured in fixed opening, middlegame, and endgame
+ *  positions.  Each benchmark is run for a number of warmup iterations,
+ *  whose results are discarded, and then for a number of measured
+ *  iterations of fixed duration.  For each benchmark and position, the
+ *  results are written to the standard output as one line of
+ *  comma-separated values: the benchmark, the position, the number of
+ *  operations, the throughput in operations per second, the average time
+ *  per operation in nanoseconds, and the average number of bytes
+ *  allocated per operation (or -1 if the JVM cannot measure allocation).
+ *  The output is thus suitable for comparing versions with diff or a
+ *  spreadsheet.  Runs with only the Makefile build and no network access:
+ *  "make bench" in this directory runs all benchmarks.
+ *  @author aarini
+ */
+public class Benchmark {
+
+    /** Run the benchmarks named in ARGS (all benchmarks if there are
+     *  none).  The options --warmup=N, --iterations=N, and --millis=MS give
+     *  the numbers of warmup and measured iterations and the duration of
+     *  each iteration. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--warmup=(\\d+){0,1} --iterations=(\\d+){0,1}"
+                            + " --millis=(\\d+){0,1}"
+                            + " --={0," + BENCHMARKS.length + "}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java tablut.Benchmark [--warmup=N]"
+                               + " [--iterations=N] [--millis=MS]"
+                               + " [BENCHMARK ...]");
+            System.exit(1);
+        }
+        Benchmark bench =
+            new Benchmark(intOption(options, "--warmup", DEFAULT_WARMUP),
+                          intOption(options, "--iterations",
+                                    DEFAULT_ITERATIONS),
+                          intOption(options, "--millis", DEFAULT_MILLIS));
+        List<String> names = options.get("--");
+        System.out.println(HEADER);
+        for (String name : BENCHMARKS) {
+            if (names.isEmpty() || names.contains(name)) {
+                for (int p = 0; p < POSITION_NAMES.length; p += 1) {
+                    bench.run(name, p, System.out);
+                }
+            }
+        }
+    }
+
+    /** A benchmark harness that runs WARMUP unmeasured and ITERATIONS
+     *  measured iterations of MILLIS milliseconds each. */
+    Benchmark(int warmup, int iterations, int millis) {
+        _warmup = warmup;
+        _iterations = iterations;
+        _nanos = millis * NANOS_PER_MILLI;
+    }
+
+    /** Run the benchmark NAME in position number P of POSITION_NAMES,
+     *  printing its results on OUT. */
+    void run(String name, int p, PrintStream out) {
+        Operation op = operation(name, position(p));
+        for (int i = 0; i < _warmup; i += 1) {
+            iteration(op);
+        }
+        long ops, nanos, bytes;
+        ops = nanos = bytes = 0;
+        for (int i = 0; i < _iterations; i += 1) {
+            long[] result = iteration(op);
+            ops += result[0];
+            nanos += result[1];
+            bytes += result[2];
+        }
+        out.printf("%s,%s,%d,%.1f,%.1f,%.1f%n", name, POSITION_NAMES[p],
+                   ops, (double) ops * NANOS_PER_SECOND / nanos,
+                   (double) nanos / ops,
+                   bytes < 0 ? -1.0 : (double) bytes / ops);
+        out.flush();
+    }
+
+    /** An operation to be measured. */
+    private interface Operation {
+        /** Perform the operation once, returning a value that depends on
+         *  its result. */
+        long run();
+    }
+
+    /** Return the operation performed by benchmark NAME on BOARD. */
+    private static Operation operation(String name, Board board) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(board.turn(), moves);
+        int[] next = new int[1];
+        switch (name) {
+        case "makeMove":
+            return () -> {
+                int move = moves[next[0]];
+                next[0] = (next[0] + 1) % n;
+                board.makeMove(move);
+                long key = board.key();
+                board.undo();
+                return key;
+            };
+        case "legalMoves":
+            return () -> board.legalMoves(board.turn(), moves);
+        case "legalMovesList":
+            return () -> board.legalMoves(board.turn()).size();
+        case "encodedBoard":
+            return () -> board.encodedBoard().hashCode();
+        case "copy":
+            return () -> new Board(board).key();
+        case "findMove":
+            AI ai = new AI(board.turn(), null);
+            ai.setTableSize(AI_TABLE_MEGABYTES);
+            ai.setTimeLimit(0);
+            ai.setDepthLimit(AI_DEPTH);
+            return () -> {
+                ai.clear();
+                return ai.findMove(board).code();
+            };
+        default:
+            throw new IllegalArgumentException("unknown benchmark: "
+                                               + name);
+        }
+    }
+
+    /** Perform OP repeatedly for my iteration time, returning the number
+     *  of operations performed, the time taken in nanoseconds, and the
+     *  number of bytes allocated (or -1 if unknown).  The clock is read
+     *  after batches of operations that double in size up to MAX_BATCH,
+     *  so that reading it costs little for fast operations and slow
+     *  operations do not overrun the iteration by much. */
+    private long[] iteration(Operation op) {
+        long bytes0 = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + _nanos;
+        long ops, now;
+        ops = 0;
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; i += 1) {
+                _sink ^= op.run();
+            }
+            ops += batch;
+            batch = Math.min(2 * batch, MAX_BATCH);
+            now = System.nanoTime();
+        } while (now < end);
+        long bytes1 = allocatedBytes();
+        return new long[] {
+            ops, now - start, bytes0 < 0 ? -1 : bytes1 - bytes0
+        };
+    }
+
+    /** Return the number of bytes allocated so far by the current thread,
+     *  or -1 if this cannot be determined. */
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported()
+                && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    /** Return the board for position number P of POSITION_NAMES. */
+    static Board position(int p) {
+        Board board = new Board();
+        for (String move : POSITIONS[p].split(" ")) {
+            if (!move.isEmpty()) {
+                board.makeMove(Move.mv(move));
+            }
+        }
+        return board;
+    }
+
+    /** Names of all benchmarks. */
+    static final String[] BENCHMARKS = {
+        "makeMove", "legalMoves", "legalMovesList", "encodedBoard", "copy",
+        "findMove"
+    };
+
+    /** Names of the benchmark positions. */
+    static final String[] POSITION_NAMES = {
+        "opening", "middlegame", "endgame"
+    };
+
+    /** The benchmark positions, as sequences of moves from the initial
+     *  position. */
+    private static final String[] POSITIONS = {
+        "",
+        "d9-8 c5-3 a6-d e3-f i6-f d5-c a4-1 f5-4 a5-4 e7-b i5-8 f3-h f1-2 "
+        + "g5-8 f2-1 f4-3 a4-6 g8-7 e9-c g7-1",
+        "e8-i e4-b h5-9 c5-7 a6-7 g5-7 h9-7 e3-4 a4-3 e6-f h7-8 d5-2 d9-4 "
+        + "f6-7 a3-g g7-5 a7-6 e5-c g3-d g5-8 i6-h c7-d e2-f b4-2 a6-7 "
+        + "c5-4 e9-d e4-d d3-c g8-f i5-6 e7-9 i4-e b2-a a7-8 e9-7 h6-e "
+        + "f5-c a5-4 f7-h d9-a a2-3 c3-i a3-e a4-b e7-9 f2-g d7-6 g2-8 "
+        + "f8-6 d1-3 f6-8 b5-a e9-8 b4-5 d4-g a9-b c5-d d3-4 g4-6"
+    };
+
+    /** Header line of the output. */
+    static final String HEADER =
+        "benchmark,position,operations,ops_per_s,ns_per_op,bytes_per_op";
+
+    /** Default numbers of warmup and measured iterations. */
+    static final int DEFAULT_WARMUP = 3, DEFAULT_ITERATIONS = 5;
+    /** Default duration of an iteration in milliseconds. */
+    static final int DEFAULT_MILLIS = 1000;
+
+    /** Search depth and table size of the AI in the findMove
+     *  benchmark, which is created once and cleared before each
+     *  search. */
+    private static final int AI_DEPTH = 4, AI_TABLE_MEGABYTES = 1;
+
+    /** Maximum number of operations between readings of the clock. */
+    private static final int MAX_BATCH = 1024;
+
+    /** Source of per-thread allocation counts. */
+    private static final ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    /** Numbers of warmup and measured iterations. */
+    private final int _warmup, _iterations;
+    /** Duration of an iteration in nanoseconds. */
+    private final long _nanos;
+
+    /** Accumulated results of all operations, kept so that the operations
+     *  cannot be optimized away. */
+    private long _sink;
+}
@@ -1,19 +1,21 @@
 package tablut;
 
-import java.util.Stack;
 import java.util.HashSet;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Random;
 
-import static tablut.Move.ROOK_MOVES;
 import static tablut.Piece.*;
 import static tablut.Square.*;
-import static tablut.Move.mv;
+import static tablut.Utils.error;
 
 
-/** The state of a Tablut Game.
+/** The state of a Tablut Game.  The position is held as a pair of
+ *  81-bit occupancy masks, one per side, each packed into two longs
+ *  indexed by Square.index() (bit I of word I / 64), plus the index of the
+ *  king's square.  The king's square is also set in the WHITE mask.
  *  @author Aarini
  */
 class Board {
@@ -28,6 +30,10 @@ class Board {
             WTHRONE = sq(3, 4),
             ETHRONE = sq(5, 4);
 
+    /** An upper bound on the number of legal moves in any position: each
+     *  empty square can be reached from at most four directions. */
+    static final int MAX_MOVES = 4 * SIZE * SIZE;
+
     /** Initial positions of attackers. */
     static final Square[] INITIAL_ATTACKERS = {
             sq(0, 3), sq(0, 4), sq(0, 5), sq(1, 4),
@@ -59,66 +65,43 @@ class Board {
             return;
         }
         init();
-        this._arrayBoard = new Piece[BOARD_SIZE][BOARD_SIZE];
-        this._arrayBoard = model._arrayBoard.clone();
+        this._black[0] = model._black[0];
+        this._black[1] = model._black[1];
+        this._white[0] = model._white[0];
+        this._white[1] = model._white[1];
+        System.arraycopy(model._rows, 0, this._rows, 0, SIZE);
+        System.arraycopy(model._cols, 0, this._cols, 0, SIZE);
+        this._king = model._king;
+        this._key = model._key;
         this._moveCount = model.moveCount();
-        this._capturePiece = model._capturePiece;
-        this._board = model._board;
-        this._strBoard = model.encodedBoard();
-        this._playedMoves = model._playedMoves;
-        this._strBoardReps = model._strBoardReps;
-        this._sqOld = model._sqOld;
+        this._undoLog = Arrays.copyOf(model._undoLog, model._undoLog.length);
+        this._undoSize = model._undoSize;
+        this._keyHistory = Arrays.copyOf(model._keyHistory,
+                                         model._keyHistory.length);
+        this._numKeys = model._numKeys;
         this._turn = model.turn();
         this._winner = model.winner();
         this._repeated = model._repeated;
-        this._pOld = model._pOld;
-        this._oneCapturePiece = model._oneCapturePiece;
-        this._isCaptured = model._isCaptured;
         this._moveLimit = model._moveLimit;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        _board.clear();
-        _undoStack.clear();
-        _arrayBoard = new Piece[BOARD_SIZE][BOARD_SIZE];
-        _isCaptured = new Stack<Boolean>();
-        _capturePiece = new Stack<Piece>();
-        _pOld = new Stack<Piece>();
-        _sqOld = new Stack<Square>();
-        _oneCapturePiece = new Stack<>();
-        _strBoardReps = new HashSet<>();
+        clearSquares();
+        _undoSize = 0;
+        _numKeys = 0;
         _winner = null;
         _moveCount = 0;
         _turn = BLACK;
 
         for (Square sq: INITIAL_ATTACKERS) {
-            initial[sq.col()][sq.row()] = BLACK;
-            _arrayBoard[sq.col()][sq.row()] = BLACK;
+            put(BLACK, sq);
         }
-        initial[THRONE.col()][THRONE.row()] = KING;
-        _arrayBoard[THRONE.col()][THRONE.row()] = KING;
-
+        put(KING, THRONE);
         for (Square sq: INITIAL_DEFENDERS) {
-            initial[sq.col()][sq.row()] = WHITE;
-            _arrayBoard[sq.col()][sq.row()] = WHITE;
-        }
-        for (int col = 0; col < BOARD_SIZE; col += 1) {
-            for (int row = 0; row < BOARD_SIZE; row += 1) {
-                if (_arrayBoard[col][row] == null) {
-                    _arrayBoard[col][row] = EMPTY;
-                }
-            }
+            put(WHITE, sq);
         }
-        for (int col = 0; col < BOARD_SIZE; col += 1) {
-            for (int row = 0; row < BOARD_SIZE; row += 1) {
-                if (initial[col][row] == null) {
-                    initial[col][row] = EMPTY;
-                }
-            }
-        }
-        _strBoard = encodedBoard();
-        _strBoardReps.add(_strBoard);
+        recordKey();
     }
 
     /** Set the move limit to LIM.  It is an error if 2*LIM <= moveCount().
@@ -149,12 +132,30 @@ class Board {
     /** Record current position and set winner() next mover if the current
      *  position is a repeat. */
     private void checkRepeated() {
-        if (!_strBoardReps.contains(encodedBoard())) {
-            _strBoardReps.add(encodedBoard());
-        } else {
-            _winner = _turn;
-            _repeated = true;
+        for (int k = 0; k < _numKeys; k += 1) {
+            if (_keyHistory[k] == _key) {
+                _winner = _turn;
+                _repeated = true;
+                break;
+            }
         }
+        recordKey();
+    }
+
+    /** Append the current position's key to the key history. */
+    private void recordKey() {
+        if (_numKeys == _keyHistory.length) {
+            _keyHistory = Arrays.copyOf(_keyHistory, 2 * _numKeys);
+        }
+        _keyHistory[_numKeys] = _key;
+        _numKeys += 1;
+    }
+
+    /** Return a 64-bit Zobrist hash of the current position (pieces and
+     *  side to move).  Equal positions have equal keys, and distinct
+     *  positions have equal keys with negligible probability. */
+    long key() {
+        return _key;
     }
 
     /** Return the number of moves since the initial position that have not been
@@ -163,17 +164,15 @@ class Board {
         return _moveCount;
     }
 
-    /** Return location of the king. */
+    /** Return location of the king, or null if it has been captured. */
     Square kingPosition() {
-        for (int col = 0; col < BOARD_SIZE; col++) {
-            for (int row = 0; row < BOARD_SIZE; row++) {
+        return _king < 0 ? null : sq(_king);
+    }
 
-                if (_arrayBoard[col][row] == KING) {
-                    return sq(col, row);
-                }
-            }
-        }
-        return null;
+    /** Return the index of the king's square, or -1 if it has been
+     *  captured. */
+    int kingIndex() {
+        return _king;
     }
 
     /** Return the contents the square at S. */
@@ -184,7 +183,25 @@ class Board {
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
-        return _arrayBoard[col][row];
+        return get(row * BOARD_SIZE + col);
+    }
+
+    /** Return the contents of the square whose index is INDEX. */
+    final Piece get(int index) {
+        if (index == _king) {
+            return KING;
+        } else if (isSet(_white, index)) {
+            return WHITE;
+        } else if (isSet(_black, index)) {
+            return BLACK;
+        } else {
+            return EMPTY;
+        }
+    }
+
+    /** Return true iff the square whose index is INDEX is empty. */
+    final boolean isEmpty(int index) {
+        return !isSet(_white, index) && !isSet(_black, index);
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -192,17 +209,42 @@ class Board {
         return get(row - '1', col - 'a');
     }
 
-    /** Set square S to P. */
+    /** Set square S to P.  There is at most one king: putting a KING
+     *  demotes any other king on the board to an ordinary WHITE piece. */
     final void put(Piece p, Square s) {
-        _arrayBoard[s.col()][s.row()] = p;
-    }
-
-    /** Set square S to P and record for undoing. */
-    final void revPut(Piece p, Square s) {
-        put(p, s);
-        _undoStack.add(new Board(this));
-        _sqOld.push(s);
-        _pOld.push(p);
+        int index = s.index();
+        int w = index >>> LOG_WORD;
+        long bit = 1L << index;
+        Piece old = get(index);
+        _key ^= ZOBRIST[old.ordinal()][index]
+            ^ ZOBRIST[p.ordinal()][index];
+        if ((old == EMPTY) != (p == EMPTY)) {
+            _rows[s.row()] ^= 1 << s.col();
+            _cols[s.col()] ^= 1 << s.row();
+        }
+        if (p == KING && _king >= 0 && _king != index) {
+            _key ^= ZOBRIST[KING.ordinal()][_king]
+                ^ ZOBRIST[WHITE.ordinal()][_king];
+        }
+        _white[w] &= ~bit;
+        _black[w] &= ~bit;
+        switch (p) {
+        case BLACK:
+            _black[w] |= bit;
+            break;
+        case KING:
+            _king = index;
+            _white[w] |= bit;
+            break;
+        case WHITE:
+            _white[w] |= bit;
+            break;
+        default:
+            break;
+        }
+        if (p != KING && _king == index) {
+            _king = -1;
+        }
     }
 
     /** Set square COL ROW to P. */
@@ -214,29 +256,17 @@ class Board {
      *  board.  For this to be true, FROM-TO must be a rook move and the
      *  squares along it, other than FROM, must be empty. */
     boolean isUnblockedMove(Square from, Square to) {
-        if (from.isRookMove(to)) {
-            boolean bool  = true;
-            int dir0 = from.direction(to);
-            int dir1 = DIR[dir0][1];
-            int dir2 = DIR[dir0][0];
-            if (dir2 != 0 && dir1 == 0) {
-                for (int col = from.col() + DIR[dir0][0];
-                     col != to.col(); col += DIR[dir0][0]) {
-                    if (arr2D()[col][from.row()] != EMPTY) {
-                        bool = false;
-                    }
-                }
-            } else if (dir2 == 0 && dir1 != 0) {
-                for (int row = from.row() + DIR[dir0][1];
-                     row != to.row(); row += DIR[dir0][1]) {
-                    if (arr2D()[from.col()][row] != EMPTY) {
-                        bool = false;
-                    }
-                }
-            }
-            return bool && arr2D()[to.col()][to.row()] == EMPTY;
+        if (!from.isRookMove(to)) {
+            return false;
+        } else if (from.row() == to.row()) {
+            int occ = _rows[from.row()];
+            return ((SLIDE_UP[from.col()][occ] | SLIDE_DOWN[from.col()][occ])
+                    & (1 << to.col())) != 0;
+        } else {
+            int occ = _cols[from.col()];
+            return ((SLIDE_UP[from.row()][occ] | SLIDE_DOWN[from.row()][occ])
+                    & (1 << to.row())) != 0;
         }
-        return false;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
@@ -247,9 +277,9 @@ class Board {
     /** Return true iff FROM-TO is a valid move. */
     boolean isLegal(Square from, Square to) {
         if ((turn() == WHITE && get(from) == KING) || (isLegal(from))
-                && arr2D()[to.col()][to.row()] == EMPTY) {
+                && isEmpty(to.index())) {
             if (isUnblockedMove(from, to)) {
-                if (arr2D()[from.col()][from.row()] != KING) {
+                if (from.index() != _king) {
                     return to != THRONE;
                 } else {
                     return true;
@@ -265,24 +295,50 @@ class Board {
         return isLegal(move.from(), move.to());
     }
 
+    /** Return true iff MOVE, a legal move, may capture: that is, iff it
+     *  puts the moving piece next to an opposing piece with a piece of the
+     *  mover's side or the throne beyond it.  This is true of every
+     *  capturing move (but also of some others). */
+    boolean mayCapture(Move move) {
+        return mayCapture(move.code());
+    }
+
+    /** Return true iff the legal move encoded as MOVE (see Move.code)
+     *  may capture, as for mayCapture(Move). */
+    boolean mayCapture(int move) {
+        Piece side = get(Move.fromIndex(move)).side();
+        Square to = sq(Move.toIndex(move));
+        for (int d = 0; d < 4; d++) {
+            Square far = to.rookMove(d, 2);
+            if (far != null
+                && get(to.rookMove(d, 1)).side() == side.opponent()
+                && (get(far).side() == side || far == THRONE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /** Move FROM-TO, assuming this is a legal move. */
     void makeMove(Square from, Square to) {
         assert isLegal(from, to);
-        Piece inPiece = _arrayBoard[from.col()][from.row()];
-        revPut(inPiece, to); revPut(EMPTY, from);
-        _playedMoves.push(mv(from, to));
+        Piece inPiece = get(from);
+        put(inPiece, to); put(EMPTY, from);
+        if (_undoSize == _undoLog.length) {
+            _undoLog = Arrays.copyOf(_undoLog, 2 * _undoSize);
+        }
+        _undoLog[_undoSize] = from.index() | (to.index() << UNDO_TO)
+            | (inPiece.ordinal() << UNDO_PIECE);
+        _undoSize += 1;
         for (int d = 0; d < 4; d++) {
-            _isCaptured.push(false);
             if (exists(to.col() + 2 * DIR[d][0],
                     to.row() + 2 * DIR[d][1])) {
                 Square toSquare = sq(to.col() + 2 * DIR[d][0],
                         to.row() + 2 * DIR[d][1]);
                 Square nextS = sq(to.col() + 2 * DIR[d][0],
                         to.row() + 2 * DIR[d][1]);
-                Piece nextP = _arrayBoard[to.col()
-                        + 2 * DIR[d][0]][to.row() + 2 * DIR[d][1]];
-                Piece middle = _arrayBoard[to.between(nextS).col()]
-                        [to.between(nextS).row()];
+                Piece nextP = get(nextS);
+                Piece middle = get(to.between(nextS));
                 Square bet = to.between(nextS);
                 if (nextP == turn()
                         || (nextP == EMPTY && toSquare == THRONE)) {
@@ -291,33 +347,29 @@ class Board {
                         && middle == WHITE && toSquare == THRONE) {
                     Square sideThrone = bet.diag1(THRONE);
                     Square sideThrone1 = bet.diag2(THRONE);
-                    if (_arrayBoard[sideThrone1.col()]
-                            [sideThrone1.row()] == BLACK
-                            && _arrayBoard[sideThrone.col()]
-                            [sideThrone.row()] == BLACK) {
+                    if (get(sideThrone1) == BLACK
+                            && get(sideThrone) == BLACK) {
                         Square lastSideThrone = sideThrone.diag1(THRONE);
                         if (lastSideThrone == bet) {
                             lastSideThrone = sideThrone.diag2(THRONE);
                         }
-                        if (_arrayBoard[lastSideThrone.col()]
-                                [lastSideThrone.row()] == BLACK) {
+                        if (get(lastSideThrone) == BLACK) {
                             capture(to, nextS);
                         }
                     }
                 }
             }
         }
-        if (kingPosition() != null && kingPosition().isEdge()) {
+        if (_king >= 0 && sq(_king).isEdge()) {
             _winner = WHITE;
-        } else if (kingPosition() == null && turn() == BLACK) {
+        } else if (_king < 0 && turn() == BLACK) {
             _winner = BLACK;
         }
         _moveCount++;
-        _turn = turn().opponent();
+        switchTurn();
         if (!hasMove(_turn)) {
             _winner = _turn.opponent();
         }
-        _strBoard = encodedBoard();
         checkRepeated();
     }
 
@@ -337,9 +389,8 @@ class Board {
                         || bwS == NTHRONE || bwS == WTHRONE) {
                     Square d1 = toSquare.diag1(bwS);
                     Square d2 = toSquare.diag2(bwS);
-                    if ((_arrayBoard[d1.col()][d1.row()] == myPiece
-                            || d1 == THRONE) && (_arrayBoard[d2.col()]
-                            [d2.row()] == myPiece || d2 == THRONE)) {
+                    if ((get(d1) == myPiece || d1 == THRONE)
+                            && (get(d2) == myPiece || d2 == THRONE)) {
                         capture(to, toSquare);
                     }
                 } else {
@@ -356,102 +407,286 @@ class Board {
         makeMove(move.from(), move.to());
     }
 
+    /** Make the move encoded as MOVE (see Move.code), assuming it is a
+     *  legal move. */
+    void makeMove(int move) {
+        makeMove(sq(Move.fromIndex(move)), sq(Move.toIndex(move)));
+    }
+
+    /** Give the move to the other side without moving (a null move),
+     *  as a search may do to test whether the side to move is threatened.
+     *  The null move is not recorded for undo or repetition, and must be
+     *  reversed by undoNullMove before the board is otherwise changed. */
+    void makeNullMove() {
+        switchTurn();
+    }
+
+    /** Reverse the effect of makeNullMove. */
+    void undoNullMove() {
+        switchTurn();
+    }
+
     /** Capture the piece between SQ0 and SQ2, assuming a piece just moved to
-     *  SQ0 and the necessary conditions are satisfied. */
+     *  SQ0 and the necessary conditions are satisfied.  Records the
+     *  captured piece in the undo record of the move to SQ0. */
     private void capture(Square sq0, Square sq2) {
         Square toCapture = sq0.between(sq2);
-        _isCaptured.pop();
-        _isCaptured.push(true);
-        _oneCapturePiece.push(toCapture);
-        _capturePiece.push(get(toCapture));
+        int shift = UNDO_CAPTURES + UNDO_PIECE_BITS * sq0.direction(sq2);
+        _undoLog[_undoSize - 1] |= get(toCapture).ordinal() << shift;
         put(EMPTY, toCapture);
     }
 
     /** Undo one move.  Has no effect on the initial board. */
     void undo() {
-        if (_moveCount > 0 && !_pOld.isEmpty()) {
+        if (_moveCount > 0 && _undoSize > 0) {
             undoPosition();
             _moveCount--;
-            Square s = _sqOld.pop();
-            Piece p = _pOld.pop();
-            if (p != EMPTY) {
-                throw new IllegalArgumentException();
-            }
-            Square s1 = _sqOld.pop();
-            Piece p0 = _pOld.pop();
-            put(p, s1); put(p0, s);
-            for (int i = 3; i >= 0; i--) {
-                boolean captured = _isCaptured.pop();
-                if (captured) {
-                    Square c = _oneCapturePiece.pop();
-                    Piece cp = _capturePiece.pop();
-                    put(cp, c);
+            _undoSize -= 1;
+            int record = _undoLog[_undoSize];
+            Square from = sq(record & UNDO_SQUARE_MASK),
+                to = sq((record >>> UNDO_TO) & UNDO_SQUARE_MASK);
+            put(EMPTY, to);
+            put(PIECES[(record >>> UNDO_PIECE) & UNDO_PIECE_MASK], from);
+            for (int d = 0; d < 4; d++) {
+                int captured = (record >>> (UNDO_CAPTURES
+                                            + UNDO_PIECE_BITS * d))
+                    & UNDO_PIECE_MASK;
+                if (captured != 0) {
+                    put(PIECES[captured], to.rookMove(d, 1));
                 }
             }
-            _turn = turn().opponent();
+            switchTurn();
             _winner = null;
-            _strBoard = encodedBoard();
         }
     }
 
-    /** Remove record of current position in the set of positions encountered,
-     *  unless it is a repeated position or we are at the first move. */
+    /** Remove the key of the current position, the last one recorded, from
+     *  the history of positions encountered, if there is one, and clear
+     *  the repeated-position flag. */
     private void undoPosition() {
-        if (!_repeated && moveCount() > 0) {
-            _strBoardReps.remove(encodedBoard());
+        if (_numKeys > 0) {
+            _numKeys -= 1;
         }
         _repeated = false;
     }
 
+    /** Give the move to the other side. */
+    private void switchTurn() {
+        _turn = _turn.opponent();
+        _key ^= WHITE_TO_MOVE;
+    }
+
     /** Clear the undo stack and board-position counts. Does not modify the
      *  current position or win status. */
     void clearUndo() {
-        _undoStack.add(new Board(this));
-        _sqOld.clear(); _pOld.clear();
-        _playedMoves.clear(); _undoStack.clear();
-        _isCaptured.clear(); _oneCapturePiece.clear();
-        _capturePiece.clear(); _strBoardReps.clear();
+        _undoSize = 0;
+        _numKeys = 0;
         _moveCount = 1;
     }
 
     /** Return a new mutable list of all legal moves on the current board for
      *  SIDE (ignoring whose turn it is at the moment). */
     List<Move> legalMoves(Piece side) {
-        List<Move> mList = new ArrayList<>();
-        for (int i = 0; i < BOARD_SIZE; i++) {
-            for (int j = 0; j < BOARD_SIZE; j++) {
-                if (arr2D()[i][j].side() == side) {
-                    for (int d = 0; d < 4; d++) {
-                        for (Move M: ROOK_MOVES[sq(i, j).index()][d]) {
-                            if (isLegalOne(M)) {
-                                mList.add(M);
-                            }
-                        }
+        int[] moves = new int[MAX_MOVES];
+        int n = legalMoves(side, moves);
+        List<Move> mList = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            mList.add(Move.mv(moves[i]));
+        }
+        return mList;
+    }
+
+    /** Store encodings (see Move.code) of all legal moves on the current
+     *  board for SIDE (ignoring whose turn it is) in MOVES, which must
+     *  have at least MAX_MOVES elements, and return their number. */
+    int legalMoves(Piece side, int[] moves) {
+        int n = 0;
+        long[] pieces = side == BLACK ? _black : _white;
+        for (int w = 0; w < pieces.length; w += 1) {
+            for (long m = pieces[w]; m != 0; m &= m - 1) {
+                int from = (w << LOG_WORD) + Long.numberOfTrailingZeros(m);
+                int row = from / SIZE, col = from % SIZE;
+                int rowOcc = _rows[row], colOcc = _cols[col];
+                int offThrone = from == _king ? 0 : THRONE_BIT;
+                int north = SLIDE_UP[row][colOcc],
+                    east = SLIDE_UP[col][rowOcc],
+                    south = SLIDE_DOWN[row][colOcc],
+                    west = SLIDE_DOWN[col][rowOcc];
+                if (col == THRONE.col()) {
+                    north &= ~offThrone;
+                    south &= ~offThrone;
+                }
+                if (row == THRONE.row()) {
+                    east &= ~offThrone;
+                    west &= ~offThrone;
+                }
+                n = addMoves(moves, n, from, north, col, SIZE, true);
+                n = addMoves(moves, n, from, east, row * SIZE, 1, true);
+                n = addMoves(moves, n, from, south, col, SIZE, false);
+                n = addMoves(moves, n, from, west, row * SIZE, 1, false);
+            }
+        }
+        return n;
+    }
+
+    /** Store in MOVES, starting at N, the encodings of the moves from the
+     *  square with index FROM to the squares with indices BASE + STEP * q
+     *  for each bit q set in TARGETS, in order of increasing q if UP, and
+     *  of decreasing q otherwise.  Return the new number of moves. */
+    private static int addMoves(int[] moves, int n, int from, int targets,
+                                int base, int step, boolean up) {
+        while (targets != 0) {
+            int q = up ? Integer.numberOfTrailingZeros(targets)
+                : Integer.SIZE - 1 - Integer.numberOfLeadingZeros(targets);
+            targets ^= 1 << q;
+            moves[n] = Move.code(from, base + step * q);
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Return the number of legal moves on the current board for SIDE
+     *  (ignoring whose turn it is). */
+    int mobility(Piece side) {
+        int n = 0;
+        long[] pieces = side == BLACK ? _black : _white;
+        for (int w = 0; w < pieces.length; w += 1) {
+            for (long m = pieces[w]; m != 0; m &= m - 1) {
+                int from = (w << LOG_WORD) + Long.numberOfTrailingZeros(m);
+                int row = from / SIZE, col = from % SIZE;
+                int vertical = SLIDE_UP[row][_cols[col]]
+                    | SLIDE_DOWN[row][_cols[col]],
+                    horizontal = SLIDE_UP[col][_rows[row]]
+                    | SLIDE_DOWN[col][_rows[row]];
+                if (from != _king) {
+                    if (col == THRONE.col()) {
+                        vertical &= ~THRONE_BIT;
+                    }
+                    if (row == THRONE.row()) {
+                        horizontal &= ~THRONE_BIT;
                     }
                 }
+                n += Integer.bitCount(vertical) + Integer.bitCount(horizontal);
             }
         }
-        return mList;
+        return n;
+    }
+
+    /** Return the number of empty squares in direction D (as for
+     *  Square.rookMove) from the square with index FROM up to the first
+     *  occupied square or the edge, where OCC0 and OCC1 are the words of
+     *  the occupancy mask. */
+    private static int reach(int from, int d, long occ0, long occ1) {
+        long[] ray = RAYS[from][d];
+        long b0 = occ0 & ray[0], b1 = occ1 & ray[1];
+        int blocker;
+        if (d < 2) {
+            if (b0 != 0) {
+                blocker = Long.numberOfTrailingZeros(b0);
+            } else if (b1 != 0) {
+                blocker = WORD_SIZE + Long.numberOfTrailingZeros(b1);
+            } else {
+                return ROOK_SQUARES[from][d].size();
+            }
+            return (blocker - from) / STEP[d] - 1;
+        } else {
+            if (b1 != 0) {
+                blocker = 2 * WORD_SIZE - 1 - Long.numberOfLeadingZeros(b1);
+            } else if (b0 != 0) {
+                blocker = WORD_SIZE - 1 - Long.numberOfLeadingZeros(b0);
+            } else {
+                return ROOK_SQUARES[from][d].size();
+            }
+            return (from - blocker) / STEP[d] - 1;
+        }
     }
 
-    /** Return true iff MOVE is a legal move. */
-    boolean isLegalOne(Move move) {
-        if (arr2D()[move.to().col()][move.to().row()] == EMPTY) {
-            if (isUnblockedMove(move.from(), move.to())) {
-                if (arr2D()[move.from().col()][move.from().row()] != KING) {
-                    return move.to() != THRONE;
-                } else {
-                    return true;
-                }
+    /** Return the number of directions in which the king could move to
+     *  the edge of the board (0 if there is no king). */
+    int kingEdgePaths() {
+        if (_king < 0) {
+            return 0;
+        }
+        return edgePaths(_king, _black[0] | _white[0], _black[1] | _white[1]);
+    }
+
+    /** Return true iff the legal king move encoded as MOVE (see Move.code)
+     *  reaches the edge or leaves the king clear paths to the edge in at
+     *  least two directions, which cannot both be blocked.  Captures made
+     *  by the move are ignored. */
+    boolean threatensEscape(int move) {
+        int from = Move.fromIndex(move), to = Move.toIndex(move);
+        if (sq(to).isEdge()) {
+            return true;
+        }
+        long occ0 = _black[0] | _white[0], occ1 = _black[1] | _white[1];
+        if (from < WORD_SIZE) {
+            occ0 &= ~(1L << from);
+        } else {
+            occ1 &= ~(1L << from);
+        }
+        return edgePaths(to, occ0, occ1) > 1;
+    }
+
+    /** Return the number of directions in which the square with index
+     *  FROM has a clear path to the edge, where OCC0 and OCC1 are the words
+     *  of the occupancy mask. */
+    private static int edgePaths(int from, long occ0, long occ1) {
+        int n = 0;
+        for (int d = 0; d < 4; d += 1) {
+            int length = ROOK_SQUARES[from][d].size();
+            if (length > 0 && reach(from, d, occ0, occ1) == length) {
+                n += 1;
             }
+        }
+        return n;
+    }
+
+    /** Return the number of pieces on SIDE (for WHITE, including the
+     *  king). */
+    int pieceCount(Piece side) {
+        long[] pieces = side == BLACK ? _black : _white;
+        return Long.bitCount(pieces[0]) + Long.bitCount(pieces[1]);
+    }
 
+    /** Return the number of black pieces orthogonally adjacent to the king
+     *  (0 if there is no king). */
+    int kingAttackers() {
+        if (_king < 0) {
+            return 0;
         }
-        return false;
+        long[] neighbors = NEIGHBORS[_king];
+        return Long.bitCount(neighbors[0] & _black[0])
+            + Long.bitCount(neighbors[1] & _black[1]);
     }
 
-    /** Return true iff SIDE has a legal move. */
+    /** Return true iff SIDE has a legal move.  A piece can move iff one
+     *  of its neighbors other than the throne is empty, or the throne is
+     *  an empty neighbor and the piece is the king or the square beyond
+     *  the throne is empty. */
     boolean hasMove(Piece side) {
-        return !legalMoves(side).isEmpty();
+        long empty0 = ~(_black[0] | _white[0]),
+            empty1 = ~(_black[1] | _white[1]);
+        boolean throneEmpty = isEmpty(THRONE.index());
+        long[] pieces = side == BLACK ? _black : _white;
+        for (int w = 0; w < pieces.length; w += 1) {
+            for (long m = pieces[w]; m != 0; m &= m - 1) {
+                int from = (w << LOG_WORD) + Long.numberOfTrailingZeros(m);
+                long[] neighbors = NEIGHBORS[from];
+                if ((neighbors[0] & empty0) != 0
+                    || (neighbors[1] & empty1) != 0) {
+                    return true;
+                }
+                Square s = sq(from);
+                if (throneEmpty && s.adjacent(THRONE)
+                    && (from == _king
+                        || isEmpty(THRONE.rookMove(s.direction(THRONE), 1)
+                                   .index()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     @Override
@@ -489,12 +724,16 @@ class Board {
     private HashSet<Square> pieceLocations(Piece side) {
         assert side != EMPTY;
         HashSet<Square> pieces = new HashSet<>();
-        for (int i = 0; i < BOARD_SIZE; i++) {
-            for (int j = 0; j < BOARD_SIZE; j++) {
-                if ((_arrayBoard[i][j] == side) || (side == WHITE
-                        && _arrayBoard[i][j] == KING)) {
-                    pieces.add(sq(i, j));
-                }
+        if (side == KING) {
+            if (_king >= 0) {
+                pieces.add(sq(_king));
+            }
+            return pieces;
+        }
+        long[] mask = side == BLACK ? _black : _white;
+        for (int w = 0; w < mask.length; w += 1) {
+            for (long m = mask[w]; m != 0; m &= m - 1) {
+                pieces.add(sq((w << LOG_WORD) + Long.numberOfTrailingZeros(m)));
             }
         }
         return pieces;
@@ -506,7 +745,8 @@ class Board {
     }
 
     /** Return the contents of _board in the order of SQUARE_LIST as a sequence
-     *  of characters: the toString values of the current turn and Pieces. */
+     *  of characters: the toString values of the current turn and Pieces.
+     *  Intended for display and testing; use key() to identify positions. */
     String encodedBoard() {
         char[] result = new char[Square.SQUARE_LIST.size() + 1];
         result[0] = turn().toString().charAt(0);
@@ -516,6 +756,39 @@ class Board {
         return new String(result);
     }
 
+    /** Set me to the position ENCODED, in the format of encodedBoard, with
+     *  no undo history and no winner.  I am unchanged if ENCODED is
+     *  invalid. */
+    void setPosition(String encoded) {
+        if (encoded.length() != SQUARE_LIST.size() + 1
+            || (encoded.charAt(0) != 'W' && encoded.charAt(0) != 'B')) {
+            throw error("bad encoded board: %s", encoded);
+        }
+        for (int i = 1; i < encoded.length(); i += 1) {
+            encodedPiece(encoded.charAt(i), encoded);
+        }
+        init();
+        clearSquares();
+        if (encoded.charAt(0) == 'W') {
+            switchTurn();
+        }
+        for (Square sq : SQUARE_LIST) {
+            put(encodedPiece(encoded.charAt(sq.index() + 1), encoded), sq);
+        }
+        clearUndo();
+        recordKey();
+    }
+
+    /** Return the Piece whose symbol is C in the encoded board ENCODED. */
+    private static Piece encodedPiece(char c, String encoded) {
+        for (Piece p : Piece.values()) {
+            if (p.toString().charAt(0) == c) {
+                return p;
+            }
+        }
+        throw error("bad encoded board: %s", encoded);
+    }
+
     /** Piece whose turn it is (WHITE or BLACK). */
     private Piece _turn;
     /** Cached value of winner on this board, or EMPTY if it has not been
@@ -526,21 +799,102 @@ class Board {
     /** True when current board is a repeated position (ending the game). */
     private boolean _repeated;
 
-    /** Potential undo stack for board.*/
-    private ArrayList<Board> _undoStack = new ArrayList<>();
-    /** 2D representation of board. */
-    private Piece[][] _arrayBoard = new Piece[BOARD_SIZE][BOARD_SIZE];
+    /** Occupancy masks of the black and white (including king) pieces.
+     *  Square index I is bit I % 64 of word I / 64. */
+    private final long[] _black = new long[2], _white = new long[2];
+
+    /** Occupancy masks of the lines of the board: bit c of _rows[r] and
+     *  bit r of _cols[c] are set iff the square in column c and row r is
+     *  occupied. */
+    private final int[] _rows = new int[SIZE], _cols = new int[SIZE];
 
-    /** Potential hashmap for squares and piece. */
-    private HashMap<Square, Piece> _board = new HashMap<>();
+    /** Index of the king's square, or -1 if there is no king. */
+    private int _king;
 
     /** Move limit for setmovelimit.*/
     private int _moveLimit;
 
-    /** Gets 2D array of pieces.
-     * @return arr*/
-    Piece[][] arr2D() {
-        return _arrayBoard;
+    /** Log base 2 of the number of bits in an occupancy-mask word. */
+    private static final int LOG_WORD = 6;
+
+    /** Number of bits in an occupancy-mask word. */
+    private static final int WORD_SIZE = 1 << LOG_WORD;
+
+    /** Empty all squares. */
+    private void clearSquares() {
+        _black[0] = _black[1] = _white[0] = _white[1] = 0;
+        Arrays.fill(_rows, 0);
+        Arrays.fill(_cols, 0);
+        _king = -1;
+        _key = 0;
+    }
+
+    /** NEIGHBORS[i] is the mask of the squares other than the throne that
+     *  are orthogonally adjacent to the square with index i. */
+    private static final long[][] NEIGHBORS = new long[NUM_SQUARES][2];
+
+    static {
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            for (int d = 0; d < 4; d += 1) {
+                Square s = sq(i).rookMove(d, 1);
+                if (s != null && s != THRONE) {
+                    int k = s.index();
+                    NEIGHBORS[i][k >>> LOG_WORD] |= 1L << k;
+                }
+            }
+        }
+    }
+
+    /** RAYS[i][d] is the mask of the squares from the square with index i
+     *  (exclusive) to the edge of the board in direction d (as for
+     *  Square.rookMove). */
+    private static final long[][][] RAYS = new long[NUM_SQUARES][4][2];
+
+    /** Difference in square index between neighboring squares in each
+     *  direction. */
+    private static final int[] STEP = { SIZE, 1, SIZE, 1 };
+
+    static {
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            for (int d = 0; d < 4; d += 1) {
+                for (Square s : ROOK_SQUARES[i][d]) {
+                    RAYS[i][d][s.index() >>> LOG_WORD] |= 1L << s.index();
+                }
+            }
+        }
+    }
+
+    /** SLIDE_UP[p][occ] and SLIDE_DOWN[p][occ] are the masks of the
+     *  positions of a line of the board (a row or column) that a piece at
+     *  position p of the line can reach by moving toward higher or lower
+     *  positions, respectively, when bit q of occ is set iff position q of
+     *  the line is occupied. */
+    private static final int[][]
+        SLIDE_UP = new int[SIZE][1 << SIZE],
+        SLIDE_DOWN = new int[SIZE][1 << SIZE];
+
+    /** The bit for the throne's position in the masks of its row and of
+     *  its column (the same, since the throne is at the center). */
+    private static final int THRONE_BIT = 1 << THRONE.col();
+
+    static {
+        for (int p = 0; p < SIZE; p += 1) {
+            for (int occ = 0; occ < 1 << SIZE; occ += 1) {
+                for (int q = p + 1; q < SIZE && (occ & (1 << q)) == 0;
+                     q += 1) {
+                    SLIDE_UP[p][occ] |= 1 << q;
+                }
+                for (int q = p - 1; q >= 0 && (occ & (1 << q)) == 0;
+                     q -= 1) {
+                    SLIDE_DOWN[p][occ] |= 1 << q;
+                }
+            }
+        }
+    }
+
+    /** Return true iff the bit for square index INDEX is set in MASK. */
+    private static boolean isSet(long[] mask, int index) {
+        return (mask[index >>> LOG_WORD] & (1L << index)) != 0;
     }
 
     /**2D array of Direction. */
@@ -548,31 +902,57 @@ class Board {
             { 0, 1 }, { 1, 0 }, { 0, -1 }, { -1, 0 }
     };
 
-    /** String representation of current board. */
-    private String _strBoard;
-
-    /** Hashset of previous board string representations. */
-    private HashSet<String> _strBoardReps = new HashSet<>();
-
-    /** A stack of captured pieces, corresponding to squares. */
-    private Stack<Piece> _capturePiece = new Stack<>();
-
-    /** Stack of played moves. */
-    private java.util.Stack<Move> _playedMoves = new Stack<>();
+    /** Zobrist key of the current position. */
+    private long _key;
 
-    /** New 2D array of Pieces in board size. */
-    private Piece[][] initial = new Piece[BOARD_SIZE][BOARD_SIZE];
+    /** Keys of the positions encountered so far, the current one last,
+     *  in _keyHistory[0 .. _numKeys-1]. */
+    private long[] _keyHistory = new long[64];
 
-    /** Boolean for if a piece has been captured.*/
-    private Stack<Boolean> _isCaptured = new Stack<>();
+    /** Number of valid entries in _keyHistory. */
+    private int _numKeys;
 
-    /** Stack of squares of captured pieces. */
-    private Stack<Square> _oneCapturePiece = new Stack<>();
+    /** ZOBRIST[p][i] is the random key contributed by Piece with ordinal p
+     *  on the square with index i.  Empty squares contribute 0. */
+    private static final long[][] ZOBRIST =
+        new long[Piece.values().length][NUM_SQUARES];
 
-    /** Stack of old pieces. */
-    private Stack<Piece> _pOld = new Stack<>();
+    /** Key contributed when WHITE is to move. */
+    private static final long WHITE_TO_MOVE;
 
-    /** Stack of previous squares. */
-    private Stack<Square> _sqOld = new Stack<>();
+    static {
+        Random gen = new Random(0x7AB1A7L);
+        for (Piece p : Piece.values()) {
+            if (p != EMPTY) {
+                for (int i = 0; i < NUM_SQUARES; i += 1) {
+                    ZOBRIST[p.ordinal()][i] = gen.nextLong();
+                }
+            }
+        }
+        WHITE_TO_MOVE = gen.nextLong();
+    }
+
+    /** Undo records of the moves made, most recent last, in
+     *  _undoLog[0 .. _undoSize-1].  Each record packs the from and to
+     *  square indices, the ordinal of the moved piece, and for each
+     *  direction d (as for Square.rookMove) the ordinal of the piece
+     *  captured next to the to square in direction d (0 if none). */
+    private int[] _undoLog = new int[64];
+
+    /** Number of valid entries in _undoLog. */
+    private int _undoSize;
+
+    /** Mask for a square index in an undo record. */
+    private static final int UNDO_SQUARE_MASK = 0x7f;
+    /** Number of bits for a Piece ordinal in an undo record. */
+    private static final int UNDO_PIECE_BITS = 2;
+    /** Mask for a Piece ordinal in an undo record. */
+    private static final int UNDO_PIECE_MASK = (1 << UNDO_PIECE_BITS) - 1;
+    /** Bit positions of the to square, moved piece, and first captured
+     *  piece in an undo record. */
+    private static final int UNDO_TO = 7, UNDO_PIECE = 14, UNDO_CAPTURES = 16;
+
+    /** All Pieces, indexed by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
 
 }
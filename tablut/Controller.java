@@ -1,11 +1,14 @@
 package tablut;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.Random;
-import java.util.Scanner;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 import static tablut.Utils.*;
 import static tablut.Square.*;
@@ -28,10 +31,21 @@ final class Controller {
     Controller(View view, PrintStream logFile, Reporter reporter,
                Player manualPlayerTemplate, Player autoPlayerTemplate,
                boolean strict) {
+        this(view, logFile, reporter, manualPlayerTemplate,
+             autoPlayerTemplate, strict, System.in, System.out);
+    }
+
+    /** A Controller as for the constructor above that reads commands
+     *  from INPUT and writes prompts and board dumps to OUTPUT, rather
+     *  than the standard input and output. */
+    Controller(View view, PrintStream logFile, Reporter reporter,
+               Player manualPlayerTemplate, Player autoPlayerTemplate,
+               boolean strict, InputStream input, PrintStream output) {
         _view = view;
         _playing = false;
         _logFile = logFile;
-        _input = new Scanner(System.in);
+        _input = new BufferedReader(new InputStreamReader(input));
+        _output = output;
         _autoPlayerTemplate = autoPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
         _nonPlayer = manualPlayerTemplate.create(EMPTY, this);
@@ -46,6 +60,10 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        if (_record != null) {
+            _record.header(_seed, _board.moveLimit(), manualWhite(),
+                           manualBlack());
+        }
         while (_playing) {
             _view.update(this);
             String command;
@@ -66,13 +84,45 @@ final class Controller {
             } catch (IllegalArgumentException excp) {
                 reportError("Error: %s%n", excp.getMessage());
                 if (_strict) {
+                    closeRecord();
                     System.exit(1);
                 }
             }
         }
+        _white.positionChanged(null);
+        _black.positionChanged(null);
         if (_logFile != null) {
             _logFile.close();
         }
+        closeRecord();
+    }
+
+    /** Release the resources of my players and write out and close my
+     *  game record, if any.  I am not used afterwards. */
+    void close() {
+        _white.close();
+        _black.close();
+        _nonPlayer.close();
+        closeRecord();
+    }
+
+    /** Write out and close my game record, if any. */
+    private void closeRecord() {
+        if (_record != null) {
+            try {
+                _record.close();
+            } catch (IOException excp) {
+                reportError("Error: could not write game record: %s%n",
+                            excp.getMessage());
+            }
+            _record = null;
+        }
+    }
+
+    /** Record all commands, and the comments written by logComment, on
+     *  RECORD, which is closed at the end of play. */
+    void setRecord(GameRecord.Writer record) {
+        _record = record;
     }
 
     /** Return the current board.  The value returned should not be
@@ -93,6 +143,7 @@ final class Controller {
      *  with the value SEED. Identical seeds produce identical sequences.
      *  Initially, the PRNG is randomly seeded. */
     void setSeed(long seed) {
+        _seed = seed;
         _randGen.setSeed(seed);
     }
 
@@ -101,12 +152,13 @@ final class Controller {
      *  leading and trailing whitespace. First issues a prompt iff PROMPT. */
     String readLine(boolean prompt) {
         if (prompt) {
-            System.out.print("> ");
-            System.out.flush();
+            _output.print("> ");
+            _output.flush();
         }
-        if (_input.hasNextLine()) {
-            return _input.nextLine().trim();
-        } else {
+        try {
+            String line = _input.readLine();
+            return line == null ? null : line.trim();
+        } catch (IOException excp) {
             return null;
         }
     }
@@ -143,43 +195,80 @@ final class Controller {
             _logFile.printf("# " + format + "%n", args);
             _logFile.flush();
         }
+        if (_record != null) {
+            _record.comment(String.format(format, args));
+        }
     }
 
-    /** A Command is pair (<pattern>, <processor>), where <pattern> is a
-     *  Matcher that matches instances of a particular command, and
-     *  <processor> is a functional object whose .accept method takes a
-     *  successfully matched Matcher and performs some operation. */
+    /** A Command is a triple (<name>, <processor>, <arguments>), where
+     *  <name> is the first word of instances of a particular command,
+     *  <arguments> are predicates that its remaining words must satisfy,
+     *  and <processor> is a functional object whose .accept method takes
+     *  a Controller and the words of a matching command and performs some
+     *  operation on the Controller. */
     private static class Command {
-        /** A new Command that matches PATN (a regular expression) and uses
-         *  PROCESSOR to process commands that match the pattern. */
-        Command(String patn, Consumer<Matcher> processor) {
-            _matcher = Pattern.compile(patn).matcher("");
+        /** A new Command named NAME whose further words satisfy ARGUMENTS,
+         *  and that uses PROCESSOR to process commands that match. */
+        @SafeVarargs
+        Command(String name, BiConsumer<Controller, String[]> processor,
+                Predicate<String>... arguments) {
+            _name = name;
             _processor = processor;
+            _arguments = arguments;
+        }
+
+        /** Return the number of words in my instances. */
+        int size() {
+            return _arguments.length + 1;
+        }
+
+        /** Return true iff the first N of WORDS are an instance of me. */
+        boolean matches(String[] words, int n) {
+            if (n != _arguments.length + 1 || !words[0].equals(_name)) {
+                return false;
+            }
+            for (int i = 0; i < _arguments.length; i += 1) {
+                if (!_arguments[i].test(words[i + 1])) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        /** A Matcher matching my pattern. */
-        protected final Matcher _matcher;
+        /** The first word of my instances. */
+        private final String _name;
         /** The function object that implements my command. */
-        protected final Consumer<Matcher> _processor;
+        protected final BiConsumer<Controller, String[]> _processor;
+        /** Predicates on the words of my instances after the first. */
+        private final Predicate<String>[] _arguments;
     }
 
     /** A list of Commands describing the valid textual commands to the
-     *  Tablut program and the methods to process them. */
-    private Command[] _commands = {
-        new Command("quit$", this::doQuit),
-        new Command("new$", this::doNew),
-        new Command("seed\\s+(\\d+)$", this::doSeed),
-        new Command("dump$", this::doDump),
-        new Command("undo$", this::doUndo),
-        new Command("manual\\s+(white|black)$", this::doManual),
-        new Command("auto\\s+(white|black)$", this::doAuto),
-        new Command("limit\\s+(\\d+)$", this::doLimit),
-        new Command("toggle\\s+" + SQ + "$", this::doToggle),
-        new Command(Move.MOVE_PATTERN.pattern(), this::doMove)
+     *  Tablut program, other than moves, and the methods to process
+     *  them. */
+    private static final Command[] COMMANDS = {
+        new Command("quit", Controller::doQuit),
+        new Command("new", Controller::doNew),
+        new Command("seed", Controller::doSeed, Utils::isNumeral),
+        new Command("dump", Controller::doDump),
+        new Command("stats", Controller::doStats),
+        new Command("undo", Controller::doUndo),
+        new Command("manual", Controller::doManual, Controller::isColor),
+        new Command("auto", Controller::doAuto, Controller::isColor),
+        new Command("limit", Controller::doLimit, Utils::isNumeral),
+        new Command("perft", Controller::doPerft, Utils::isNumeral),
+        new Command("perft", Controller::doPerft, Utils::isNumeral,
+                    "parallel"::equals),
+        new Command("toggle", Controller::doToggle, Square::isSquare)
     };
 
-    /** A Matcher whose Pattern matches comments. */
-    private static final Matcher COMMENT = Pattern.compile("#.*").matcher("");
+    /** The Command whose instances are moves. */
+    private static final Command MOVE = new Command(null, Controller::doMove);
+
+    /** Return true iff WORD names a side. */
+    private static boolean isColor(String word) {
+        return word.equals("white") || word.equals("black");
+    }
 
     /** Check that CMND is one of the valid Tablut commands and execute it, if
      *  so, raising an IllegalArgumentException otherwise. */
@@ -188,36 +277,72 @@ final class Controller {
             _logFile.println(cmnd);
             _logFile.flush();
         }
+        if (_record != null) {
+            _record.command(cmnd);
+        }
+
+        Command command = command(cmnd, _words);
+        if (command != null) {
+            command._processor.accept(this, _words);
+        }
+    }
 
-        COMMENT.reset(cmnd);
-        cmnd = COMMENT.replaceFirst("").trim().toLowerCase();
+    /** Store the words of LINE, a command as given to a Controller, in
+     *  WORDS, which must have at least MAX_WORDS elements, and return
+     *  their number: 0 if LINE is empty apart from whitespace and
+     *  comments.  Raises an IllegalArgumentException if LINE is not a
+     *  valid command. */
+    static int parse(String line, String[] words) {
+        Command command = command(line, words);
+        return command == null ? 0 : command.size();
+    }
 
+    /** Store the words of LINE in WORDS as for parse, and return the
+     *  Command of which they are an instance, or null if there are none.
+     *  LINE is first stripped of any comment and surrounding whitespace,
+     *  and converted to lower case. */
+    private static Command command(String line, String[] words) {
+        int comment = line.indexOf('#');
+        String cmnd =
+            (comment < 0 ? line : line.substring(0, comment))
+            .trim().toLowerCase();
         if (cmnd.isEmpty()) {
-            return;
+            return null;
+        }
+        int n = split(cmnd, words);
+        if (n == 1 && Move.isGrammaticalMove(cmnd)) {
+            return MOVE;
         }
-        for (Command parser : _commands) {
-            parser._matcher.reset(cmnd);
-            if (parser._matcher.matches()) {
-                parser._processor.accept(parser._matcher);
-                return;
+        for (Command command : COMMANDS) {
+            if (command.matches(words, n)) {
+                return command;
             }
         }
         throw error("Bad command: %s", cmnd);
     }
 
+    /** The words of the command being executed. */
+    private final String[] _words = new String[MAX_WORDS];
+
+    /** The greatest number of words in a command. */
+    static final int MAX_WORDS = 3;
+
     /** Command "new". */
-    private void doNew(Matcher unused) {
+    private void doNew(String[] unused) {
         _board.init();
         _winner = null;
+        positionChanged(null);
     }
 
-    /** Command "manual <color>", where <color> is COLOR.group(1). */
-    private void doManual(Matcher color) {
-        switch (color.group(1)) {
+    /** Command "manual <color>", where <color> is WORDS[1]. */
+    private void doManual(String[] words) {
+        switch (words[1]) {
         case "black":
+            _black.close();
             _black = _manualPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.close();
             _white = _manualPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -226,13 +351,15 @@ final class Controller {
         _view.update(this);
     }
 
-    /** Command "auto <color>", where <color> is COLOR.group(1). */
-    private void doAuto(Matcher color) {
-        switch (color.group(1)) {
+    /** Command "auto <color>", where <color> is WORDS[1]. */
+    private void doAuto(String[] words) {
+        switch (words[1]) {
         case "black":
+            _black.close();
             _black = _autoPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.close();
             _white = _autoPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -241,49 +368,90 @@ final class Controller {
         _view.update(this);
     }
 
-    /** Command "toggle". The first group of MAT is a square designation.
+    /** Command "toggle". WORDS[1] is a square designation.
      *  The contents of the square are modified:
      *  EMPTY -> WHITE -> KING -> BLACK .< ENPTY". Clear Undo information. */
-    private void doToggle(Matcher mat) {
-        Square sq = sq(mat.group(1));
+    private void doToggle(String[] words) {
+        toggle(_board, sq(words[1]));
+        positionChanged(null);
+    }
+
+    /** Modify the contents of SQ on BOARD as for the "toggle" command,
+     *  and clear its undo information. */
+    static void toggle(Board board, Square sq) {
         Piece piece;
-        switch (_board.get(sq)) {
+        switch (board.get(sq)) {
         case EMPTY: piece = WHITE; break;
         case WHITE: piece = KING; break;
         case KING: piece = BLACK; break;
         default:
             piece = EMPTY; break;
         }
-        _board.put(piece, sq);
-        _board.clearUndo();
+        board.put(piece, sq);
+        board.clearUndo();
     }
 
     /** Command "quit". */
-    private void doQuit(Matcher unused) {
+    private void doQuit(String[] unused) {
         _playing = false;
     }
 
-    /** Command "seed N" where N is the first group of MAT. */
-    private void doSeed(Matcher mat) {
+    /** Command "seed N" where N is WORDS[1]. */
+    private void doSeed(String[] words) {
         try {
-            setSeed(Long.parseLong(mat.group(1)));
+            setSeed(Long.parseLong(words[1]));
         } catch (NumberFormatException excp) {
             throw error("number too large");
         }
     }
 
-    /** Command "limit N" where N is the first captured group of MAT. */
-    private void doLimit(Matcher mat) {
+    /** Command "limit N" where N is WORDS[1]. */
+    private void doLimit(String[] words) {
+        setLimit(_board, words[1]);
+    }
+
+    /** Set the move limit of BOARD to the value of NUMERAL, as for the
+     *  "limit" command. */
+    static void setLimit(Board board, String numeral) {
         try {
-            _board.setMoveLimit(Integer.parseInt(mat.group(1)));
+            board.setMoveLimit(Integer.parseInt(numeral));
         } catch (NumberFormatException excp) {
             throw error("number too large");
         }
     }
 
-    /** Execute a move command matched in MAT. */
-    private void doMove(Matcher mat) {
-        _board.makeMove(Move.mv(mat.group(0)));
+    /** Command "perft N [parallel]", where N is WORDS[1].
+     *  Reports the number of positions reached from the current one in N
+     *  moves and the rate at which they were counted, counting the
+     *  subtrees of the first moves concurrently if "parallel" is
+     *  present. */
+    private void doPerft(String[] words) {
+        int depth;
+        try {
+            depth = Integer.parseInt(words[1]);
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        Board board = new Board(_board);
+        long start = System.nanoTime();
+        long count;
+        if (words[2] != null) {
+            count = Perft.parallelCount(board, depth,
+                                        ForkJoinPool.commonPool());
+        } else {
+            count = new Perft(board).count(depth);
+        }
+        long nanos = Math.max(1, System.nanoTime() - start);
+        _reporter.reportNote("perft %d: %d positions in %d ms (%d/s)",
+                             depth, count, nanos / NANOS_PER_MILLI,
+                             count * NANOS_PER_SECOND / nanos);
+    }
+
+    /** Execute the move command WORDS[0]. */
+    private void doMove(String[] words) {
+        Move move = Move.mv(words[0]);
+        _board.makeMove(move);
+        positionChanged(move);
         if (_winner == null) {
             _winner = _board.winner();
             if (_winner != null) {
@@ -294,21 +462,48 @@ final class Controller {
     }
 
     /** Dump the contents of the board on standard output. */
-    private void doDump(Matcher unused) {
-        System.out.printf("===%n%s===%n", _board);
+    private void doDump(String[] unused) {
+        _output.printf("===%n%s===%n", _board);
+    }
+
+    /** Command "stats".  Report the statistics of the last search of each
+     *  player that searches. */
+    private void doStats(String[] unused) {
+        boolean any = false;
+        for (Player player : new Player[] { _white, _black }) {
+            SearchStats stats = player.searchStats();
+            if (stats != null) {
+                any = true;
+                for (String line : stats.report()) {
+                    _reporter.reportNote("%s: %s",
+                                         player.myPiece().toName(), line);
+                }
+            }
+        }
+        if (!any) {
+            _reporter.reportNote("no search statistics");
+        }
     }
 
     /** Undo back to before my last move, if there was one (otherwise does
      *  nothing). */
-    private void doUndo(Matcher unused) {
+    private void doUndo(String[] unused) {
         if (_board.moveCount() > 1) {
             _board.undo();
             _board.undo();
             _winner = null;
+            positionChanged(null);
             _view.update(this);
         }
     }
 
+    /** Notify both players that the position has changed, by MOVE if it
+     *  is not null. */
+    private void positionChanged(Move move) {
+        _white.positionChanged(move);
+        _black.positionChanged(move);
+    }
+
     /** The board. */
     private Board _board = new Board();
 
@@ -321,14 +516,23 @@ final class Controller {
     /** The object that is displaying the current game. */
     private View _view;
 
+    /** The last seed of _randGen. */
+    private long _seed = new Random().nextLong();
+
     /** My pseudo-random number generator. */
-    private Random _randGen = new Random();
+    private Random _randGen = new Random(_seed);
 
     /** Log file, or null if absent. */
     private PrintStream _logFile;
 
+    /** Binary game record, or null if absent. */
+    private GameRecord.Writer _record;
+
     /** Input source. */
-    private Scanner _input;
+    private BufferedReader _input;
+
+    /** Destination of prompts and board dumps. */
+    private PrintStream _output;
 
     /** The current White and Black players, each created from
      *  _autoPlayerTemplate or _manualPlayerTemplate. */
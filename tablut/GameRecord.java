@@ -0,0 +1,424 @@
+package tablut;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.*;
+import static tablut.Square.*;
+import static tablut.Utils.*;
+
+/** Compact binary game records, holding the same commands as the text logs
+ *  written by the --log option of Main, but in two bytes per move rather
+ *  than five or six.  A record starts with a header: the four bytes of
+ *  MAGIC, a VERSION byte, the seed of the Controller's random-number
+ *  generator (8 bytes), the move limit (4 bytes, 0 if none), and a byte
+ *  whose bit 0 is set iff white is a manual player and whose bit 1 is set
+ *  iff black is.  Each command follows, encoded as either a move, in the
+ *  two bytes of its Move.code, whose first byte is less than 0x80, or an
+ *  opcode byte of at least 0x80 followed by any operands.  All multi-byte
+ *  numbers are big-endian.  Commands are recorded without case or extra
+ *  whitespace, and comments are recorded as separate lines.  Running this
+ *  class converts records back to text logs.
+ *  @author aarini
+ */
+public final class GameRecord {
+
+    /** Write the text logs recorded in the files named in ARGS on the
+     *  standard output. */
+    public static void main(String... args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java tablut.GameRecord FILE ...");
+            System.exit(1);
+        }
+        for (String name : args) {
+            try (InputStream input = Files.newInputStream(Paths.get(name))) {
+                toText(input, System.out);
+            } catch (IOException excp) {
+                System.err.printf("Could not read %s: %s%n", name,
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+        System.out.flush();
+    }
+
+    /** Write the text log recorded on INPUT to OUT, starting with a
+     *  comment describing the header. */
+    static void toText(InputStream input, PrintStream out)
+        throws IOException {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(input));
+        try {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("not a game record");
+            }
+            long seed = in.readLong();
+            int limit = in.readInt();
+            int players = in.readUnsignedByte();
+            out.printf("# seed %d, limit %d, white %s, black %s%n", seed,
+                       limit,
+                       (players & MANUAL_WHITE) != 0 ? "manual" : "auto",
+                       (players & MANUAL_BLACK) != 0 ? "manual" : "auto");
+            for (int op = in.read(); op >= 0; op = in.read()) {
+                out.println(command(op, in));
+            }
+        } catch (EOFException excp) {
+            throw new IOException("truncated game record");
+        }
+    }
+
+    /** Return the text of the command whose first byte is OP, reading
+     *  any further bytes of it from IN. */
+    private static String command(int op, DataInputStream in)
+        throws IOException {
+        if (op < FIRST_OPCODE) {
+            int code = (op << Byte.SIZE) | in.readUnsignedByte();
+            Move move = Move.fromIndex(code) < NUM_SQUARES
+                && Move.toIndex(code) < NUM_SQUARES ? Move.mv(code) : null;
+            if (move == null) {
+                throw new IOException("bad move in game record");
+            }
+            return move.toString();
+        }
+        switch (op) {
+        case NEW:
+            return "new";
+        case UNDO:
+            return "undo";
+        case QUIT:
+            return "quit";
+        case DUMP:
+            return "dump";
+        case STATS:
+            return "stats";
+        case MANUAL_WHITE_OP:
+            return "manual white";
+        case MANUAL_BLACK_OP:
+            return "manual black";
+        case AUTO_WHITE_OP:
+            return "auto white";
+        case AUTO_BLACK_OP:
+            return "auto black";
+        case SEED:
+            return "seed " + in.readLong();
+        case LIMIT:
+            return "limit " + in.readInt();
+        case TOGGLE:
+            int index = in.readUnsignedByte();
+            if (index >= NUM_SQUARES) {
+                throw new IOException("bad square in game record");
+            }
+            return "toggle " + sq(index);
+        case PERFT:
+            return "perft " + in.readInt();
+        case PERFT_PARALLEL:
+            return "perft " + in.readInt() + " parallel";
+        case COMMENT:
+            return "# " + readText(in);
+        case TEXT:
+            return readText(in);
+        default:
+            throw new IOException("bad opcode in game record");
+        }
+    }
+
+    /** Return the string, written by putText, read from IN. */
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] text = new byte[in.readUnsignedShort()];
+        in.readFully(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /** A writer of a game record on a file.  Commands are encoded on the
+     *  caller's thread into a buffer, which a background thread writes to
+     *  the file whenever it holds anything, while the caller fills a
+     *  second buffer.  A caller that fills its buffer while the other is
+     *  being written waits, so the memory used is bounded, and each write
+     *  to the file is a batch of up to BATCH_BYTES bytes. */
+    static final class Writer implements Closeable {
+
+        /** A writer of a record on FILE, which is replaced if it
+         *  exists. */
+        Writer(Path file) throws IOException {
+            this(FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE));
+        }
+
+        /** A writer of a record on CHANNEL. */
+        Writer(WritableByteChannel channel) {
+            _channel = channel;
+            _thread = new Thread(this::drain, "game-record");
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        /** Record the header, for a game whose random-number generator has
+         *  seed SEED and whose move limit is LIMIT (0 if none), and in
+         *  which white and black are manual players iff MANUALWHITE and
+         *  MANUALBLACK.  Must precede all other entries. */
+        synchronized void header(long seed, int limit, boolean manualWhite,
+                                 boolean manualBlack) {
+            _entry.clear();
+            _entry.putInt(MAGIC).put((byte) VERSION).putLong(seed)
+                .putInt(limit)
+                .put((byte) ((manualWhite ? MANUAL_WHITE : 0)
+                             | (manualBlack ? MANUAL_BLACK : 0)));
+            put();
+        }
+
+        /** Record the command line LINE, as written to a text log. */
+        synchronized void command(String line) {
+            int comment = line.indexOf('#');
+            String cmnd =
+                (comment < 0 ? line : line.substring(0, comment))
+                .trim().toLowerCase();
+            if (!cmnd.isEmpty()) {
+                _entry.clear();
+                encode(cmnd, _entry);
+                put();
+            }
+            if (comment >= 0) {
+                comment(line.substring(comment + 1).trim());
+            }
+        }
+
+        /** Record a comment containing TEXT. */
+        synchronized void comment(String text) {
+            _entry.clear();
+            _entry.put((byte) COMMENT);
+            putText(text, _entry);
+            put();
+        }
+
+        /** Write everything recorded to the file, and close it.  Throws
+         *  the first exception raised in writing, if any. */
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                _closed = true;
+                notifyAll();
+            }
+            try {
+                _thread.join();
+            } catch (InterruptedException excp) {
+                throw new IllegalStateException("game record interrupted");
+            }
+            _channel.close();
+            if (_error != null) {
+                throw _error;
+            }
+        }
+
+        /** Add the entry in _entry to _pending, waiting for room if
+         *  necessary.  Entries are discarded once writing has failed. */
+        private void put() {
+            _entry.flip();
+            while (_pending.remaining() < _entry.remaining()
+                   && _error == null) {
+                try {
+                    wait();
+                } catch (InterruptedException excp) {
+                    throw new IllegalStateException("game record"
+                                                    + " interrupted");
+                }
+            }
+            if (_error == null) {
+                _pending.put(_entry);
+                notifyAll();
+            }
+        }
+
+        /** Write the contents of _pending to my channel in batches until
+         *  I am closed and everything has been written. */
+        private void drain() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (_pending.position() == 0 && !_closed) {
+                            wait();
+                        }
+                        if (_pending.position() == 0) {
+                            return;
+                        }
+                        ByteBuffer full = _pending;
+                        _pending = _writing;
+                        _writing = full;
+                        notifyAll();
+                    }
+                    _writing.flip();
+                    while (_writing.hasRemaining()) {
+                        _channel.write(_writing);
+                    }
+                    _writing.clear();
+                }
+            } catch (IOException excp) {
+                synchronized (this) {
+                    _error = excp;
+                    notifyAll();
+                }
+            } catch (InterruptedException excp) {
+                synchronized (this) {
+                    _error = new IOException("game record interrupted");
+                    notifyAll();
+                }
+            }
+        }
+
+        /** Destination of the record. */
+        private final WritableByteChannel _channel;
+        /** The thread that writes to _channel. */
+        private final Thread _thread;
+        /** The entry being recorded. */
+        private final ByteBuffer _entry = ByteBuffer.allocate(MAX_ENTRY);
+        /** Entries waiting to be written. */
+        private ByteBuffer _pending = ByteBuffer.allocate(BATCH_BYTES);
+        /** Entries being written. */
+        private ByteBuffer _writing = ByteBuffer.allocate(BATCH_BYTES);
+        /** True once I have been closed. */
+        private boolean _closed;
+        /** The exception that ended writing, or null if none. */
+        private volatile IOException _error;
+    }
+
+    /** Put the encoding of CMND, a non-empty command in lower case with no
+     *  leading or trailing whitespace, on OUT. */
+    private static void encode(String cmnd, ByteBuffer out) {
+        String[] words = new String[3];
+        int n = split(cmnd, words);
+        if (n == 1) {
+            switch (cmnd) {
+            case "new":
+                out.put((byte) NEW);
+                return;
+            case "undo":
+                out.put((byte) UNDO);
+                return;
+            case "quit":
+                out.put((byte) QUIT);
+                return;
+            case "dump":
+                out.put((byte) DUMP);
+                return;
+            case "stats":
+                out.put((byte) STATS);
+                return;
+            default:
+                Move move =
+                    Move.isGrammaticalMove(cmnd) ? Move.mv(cmnd) : null;
+                if (move != null) {
+                    out.putShort((short) move.code());
+                    return;
+                }
+                break;
+            }
+        } else if (n == 2) {
+            switch (words[0] + " " + words[1]) {
+            case "manual white":
+                out.put((byte) MANUAL_WHITE_OP);
+                return;
+            case "manual black":
+                out.put((byte) MANUAL_BLACK_OP);
+                return;
+            case "auto white":
+                out.put((byte) AUTO_WHITE_OP);
+                return;
+            case "auto black":
+                out.put((byte) AUTO_BLACK_OP);
+                return;
+            default:
+                break;
+            }
+            try {
+                if (words[0].equals("seed") && isNumeral(words[1])) {
+                    long seed = Long.parseLong(words[1]);
+                    out.put((byte) SEED).putLong(seed);
+                    return;
+                } else if (words[0].equals("limit")
+                           && isNumeral(words[1])) {
+                    int limit = Integer.parseInt(words[1]);
+                    out.put((byte) LIMIT).putInt(limit);
+                    return;
+                } else if (words[0].equals("perft")
+                           && isNumeral(words[1])) {
+                    int depth = Integer.parseInt(words[1]);
+                    out.put((byte) PERFT).putInt(depth);
+                    return;
+                }
+            } catch (NumberFormatException excp) {
+                /* Record the command as text. */
+            }
+            if (words[0].equals("toggle") && isSquare(words[1])) {
+                out.put((byte) TOGGLE).put((byte) sq(words[1]).index());
+                return;
+            }
+        } else if (n == 3 && words[0].equals("perft")
+                   && isNumeral(words[1]) && words[2].equals("parallel")) {
+            try {
+                int depth = Integer.parseInt(words[1]);
+                out.put((byte) PERFT_PARALLEL).putInt(depth);
+                return;
+            } catch (NumberFormatException excp) {
+                /* Record the command as text. */
+            }
+        }
+        out.put((byte) TEXT);
+        putText(cmnd, out);
+    }
+
+    /** Put TEXT on OUT as its length in bytes (2 bytes) followed by its
+     *  UTF-8 encoding, truncated to at most MAX_TEXT bytes at the start of
+     *  a character. */
+    private static void putText(String text, ByteBuffer out) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_TEXT);
+        while (length < bytes.length
+               && (bytes[length] & UTF8_CONTINUATION_MASK)
+                  == UTF8_CONTINUATION) {
+            length -= 1;
+        }
+        out.putShort((short) length).put(bytes, 0, length);
+    }
+
+    /** The first four bytes of a record ("TBLR"). */
+    static final int MAGIC = 0x54424c52;
+    /** The version of the format. */
+    static final int VERSION = 1;
+
+    /** Bits of the players byte of the header. */
+    private static final int MANUAL_WHITE = 1, MANUAL_BLACK = 2;
+
+    /** Opcodes of commands without operands. */
+    private static final int FIRST_OPCODE = 0x80,
+        NEW = 0x80, UNDO = 0x81, QUIT = 0x82, DUMP = 0x83, STATS = 0x84,
+        MANUAL_WHITE_OP = 0x85, MANUAL_BLACK_OP = 0x86,
+        AUTO_WHITE_OP = 0x87, AUTO_BLACK_OP = 0x88;
+    /** Opcodes of commands with operands: SEED (8-byte seed), LIMIT,
+     *  PERFT and PERFT_PARALLEL (4-byte number), TOGGLE (1-byte square
+     *  index), and COMMENT and TEXT (text, as written by putText), the
+     *  latter for any other command. */
+    private static final int SEED = 0x90, LIMIT = 0x91, TOGGLE = 0x92,
+        PERFT = 0x93, PERFT_PARALLEL = 0x94, COMMENT = 0x95, TEXT = 0x96;
+
+    /** Maximum length in bytes of recorded text. */
+    private static final int MAX_TEXT = 1024;
+    /** The bytes of a UTF-8 encoding that continue a character, rather
+     *  than starting one, are those whose bits in UTF8_CONTINUATION_MASK
+     *  are UTF8_CONTINUATION. */
+    private static final int UTF8_CONTINUATION_MASK = 0xc0,
+        UTF8_CONTINUATION = 0x80;
+    /** Maximum length of one encoded entry. */
+    private static final int MAX_ENTRY = MAX_TEXT + 3;
+    /** Size of a batch of entries written at once. */
+    private static final int BATCH_BYTES = 8192;
+}
@@ -1,12 +1,14 @@
 package tablut;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 
-import static tablut.Utils.error;
+import static tablut.Utils.*;
 
 import ucb.util.CommandArgs;
 
@@ -15,18 +17,52 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
+    /** Greeting identifying this program. */
+    static final String VERSION = "Tablut 61B, staff version 1.0";
+
     /** The main program.  ARGS may contain the option --display. */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --testing --strict --log={0,1} --={0,2}",
+            new CommandArgs("--display --testing --strict --log={0,1}"
+                            + " --record={0,1}"
+                            + " --hash=(\\d+){0,1} --time=(\\d+){0,1}"
+                            + " --threads=(\\d+){0,1} --ponder --stats"
+                            + " --tournament=(\\d+){0,1} --engine=(\\S+){0,2}"
+                            + " --seed=(\\d+){0,1} --server=(\\S+){0,1}"
+                            + " --={0,2}",
                             args);
         if (!options.ok()) {
             System.err.println("Usage: java tablut.Main [--display]"
-                               + " [--log=FILE] [--strict] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--record=FILE]"
+                               + " [--strict] [--hash=MB]"
+                               + " [--time=MILLISECONDS] [--threads=N]"
+                               + " [--ponder] [--stats] [INPUT [OUTPUT]]");
+            System.err.println("       java tablut.Main --tournament=GAMES"
+                               + " [--engine=SPEC [--engine=SPEC]]"
+                               + " [--seed=N] [--threads=N]");
+            System.err.println("       java tablut.Main --server=PORT|PATH"
+                               + " [--hash=MB] [--time=MILLISECONDS]"
+                               + " [--threads=N]");
             System.exit(1);
         }
 
+        if (options.contains("--tournament")) {
+            runTournament(options);
+            System.exit(0);
+        }
+
+        if (options.contains("--server")) {
+            try {
+                new Server(getAutoPlayer(options),
+                           Runtime.getRuntime().availableProcessors())
+                    .serve(Server.address(options.getFirst("--server")));
+            } catch (IOException | IllegalArgumentException excp) {
+                System.err.printf("Server failed: %s%n", excp.getMessage());
+                System.exit(1);
+            }
+        }
+
         List<String> files = options.get("--");
         if (!files.isEmpty()) {
             try {
@@ -49,18 +85,55 @@ public class Main {
         }
 
         Controller control = getController(options);
-        System.out.println("Tablut 61B, staff version 1.0");
+        System.out.println(VERSION);
 
+        int status = 0;
         try {
             control.play();
-            if (!options.contains("--display")) {
-                System.exit(0);
-            }
         } catch (IllegalStateException excp) {
             System.err.printf("Internal error: %s%n", excp.getMessage());
-            System.exit(1);
+            status = 1;
+        } finally {
+            control.close();
         }
+        if (status != 0 || !options.contains("--display")) {
+            System.exit(status);
+        }
+
+    }
 
+    /** Play the match between AI configurations described by OPTIONS:
+     *  --tournament gives the number of games, each --engine describes an
+     *  engine as for Tournament.engine (default settings if absent),
+     *  --seed determines the openings, and --threads gives the number of
+     *  games played at once (by default, one per processor). */
+    private static void runTournament(CommandArgs options) {
+        List<String> specs = new ArrayList<>(options.get("--engine"));
+        while (specs.size() < 2) {
+            specs.add("");
+        }
+        String[] names = new String[2];
+        for (int i = 0; i < 2; i += 1) {
+            names[i] = specs.get(i).isEmpty() ? "default" : specs.get(i);
+        }
+        if (names[0].equals(names[1])) {
+            names[1] += "'";
+        }
+        try {
+            int threads =
+                intOption(options, "--threads",
+                          Runtime.getRuntime().availableProcessors());
+            long seed = longOption(options, "--seed", 0);
+            Tournament match =
+                new Tournament(Tournament.engine(specs.get(0)),
+                               Tournament.engine(specs.get(1)), names,
+                               intOption(options, "--tournament", 0),
+                               seed, threads, Tournament.DEFAULT_ELO0,
+                               Tournament.DEFAULT_ELO1);
+            match.run(System.out);
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
     }
 
     /** Return an appropriate Controller as indicated by OPTIONS. */
@@ -96,7 +169,37 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer,
-                              new AI(), options.contains("--strict"));
+        Controller control =
+            new Controller(view, log, reporter, manualPlayer,
+                           getAutoPlayer(options),
+                           options.contains("--strict"));
+        if (options.contains("--record")) {
+            try {
+                control.setRecord(new GameRecord.Writer(
+                    Paths.get(options.getFirst("--record"))));
+            } catch (IOException excp) {
+                throw error("Could not open game record");
+            }
+        }
+        return control;
+    }
+
+    /** Return a template for AI players with the settings given by
+     *  OPTIONS. */
+    private static AI getAutoPlayer(CommandArgs options) {
+        AI autoPlayer = new AI();
+        try {
+            autoPlayer.setTableSize(
+                intOption(options, "--hash",
+                          TranspositionTable.DEFAULT_MEGABYTES));
+            autoPlayer.setTimeLimit(
+                intOption(options, "--time", AI.DEFAULT_TIME_LIMIT));
+            autoPlayer.setThreads(intOption(options, "--threads", 1));
+            autoPlayer.setPondering(options.contains("--ponder"));
+            autoPlayer.setReportStats(options.contains("--stats"));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        return autoPlayer;
     }
 }
@@ -2,10 +2,10 @@ package tablut;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 import static tablut.Square.sq;
+import static tablut.Square.isColumn;
+import static tablut.Square.isRow;
 import static tablut.Square.NUM_SQUARES;
 import static tablut.Square.ROOK_SQUARES;
 import static tablut.Square.SQUARE_LIST;
@@ -19,12 +19,6 @@ import static tablut.Utils.*;
  */
 final class Move {
 
-    /** The syntax for a move, using either forms CR-C (horizontal moves)
-     *  or CR-R (vertical moves), where C is a column letter (a-i or A-I) and
-     *  R is a row number (1-9). */
-    static final Pattern MOVE_PATTERN =
-        Pattern.compile(String.format("(([a-i])([1-9]))-(?:([a-i])|([1-9]))"));
-
     /** Return the square moved from. */
     Square from() {
         return _from;
@@ -35,6 +29,36 @@ final class Move {
         return _to;
     }
 
+    /** Return my int encoding (see code(int, int)). */
+    int code() {
+        return code(_from.index(), _to.index());
+    }
+
+    /** Return the int encoding of the move from the square with index FROM
+     *  to the square with index TO.  Encodings are positive for valid
+     *  moves, so 0 may be used to denote no move. */
+    static int code(int from, int to) {
+        return (from << CODE_TO_BITS) | to;
+    }
+
+    /** Return the index of the square moved from in the move encoded as
+     *  CODE. */
+    static int fromIndex(int code) {
+        return code >>> CODE_TO_BITS;
+    }
+
+    /** Return the index of the square moved to in the move encoded as
+     *  CODE. */
+    static int toIndex(int code) {
+        return code & ((1 << CODE_TO_BITS) - 1);
+    }
+
+    /** Return the unique Move encoded as CODE, or null if CODE does not
+     *  encode a valid move. */
+    static Move mv(int code) {
+        return mv(sq(fromIndex(code)), sq(toIndex(code)));
+    }
+
     /** Return the unique Move FROM-TO, or null if this is not a valid
      *  move. */
     static Move mv(Square from, Square to) {
@@ -51,24 +75,27 @@ final class Move {
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            Square from = sq(_moveMatcher.group(1));
+        if (isGrammaticalMove(str)) {
+            Square from = sq(str.charAt(0) - 'a', str.charAt(1) - '1');
+            char dest = str.charAt(3);
             Square to;
-            if (_moveMatcher.group(5) == null) {
-                to = sq(_moveMatcher.group(4), _moveMatcher.group(3));
+            if (isColumn(dest)) {
+                to = sq(dest - 'a', from.row());
             } else {
-                to = sq(_moveMatcher.group(2), _moveMatcher.group(5));
+                to = sq(from.col(), dest - '1');
             }
             return mv(from, to);
         }
         return null;
     }
 
-    /** Return true iff STR has the right format for a Move. */
+    /** Return true iff STR has the right format for a Move: either CR-C
+     *  (horizontal moves) or CR-R (vertical moves), where C is a column
+     *  letter (a-i) and R is a row number (1-9). */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return str.length() == 4 && isColumn(str.charAt(0))
+            && isRow(str.charAt(1)) && str.charAt(2) == '-'
+            && (isColumn(str.charAt(3)) || isRow(str.charAt(3)));
     }
 
     @Override
@@ -109,6 +136,13 @@ final class Move {
         return (_from.index() << 6) + _to.index();
     }
 
+    /** Number of bits for the to square in a move encoding. */
+    private static final int CODE_TO_BITS = 7;
+
+    /** Limit on the encodings of moves: every valid encoding is less than
+     *  this. */
+    static final int CODE_LIMIT = NUM_SQUARES << CODE_TO_BITS;
+
     /** The cache of all Moves created. */
     private static final Move[][] MOVES = new Move[NUM_SQUARES][NUM_SQUARES];
 
@@ -134,6 +168,4 @@ final class Move {
     private final Square _from, _to;
     /** The printed form of this Move. */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
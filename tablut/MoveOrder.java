@@ -0,0 +1,119 @@
+package tablut;
+
+import java.util.Arrays;
+
+import static tablut.Piece.*;
+
+/** Heuristic ordering of the moves searched at each node of a game tree.
+ *  Moves are tried in the order: the best move recorded for the position
+ *  (the hash move), moves that may capture, king moves, the two most
+ *  recent moves at the same ply that caused cutoffs (killer moves), and
+ *  finally all other moves in decreasing order of the history table, which
+ *  accumulates cutoffs caused by each from-to pair for each side.
+ *  Moves are handled in their int encodings (see Move.code).
+ *  @author aarini
+ */
+final class MoveOrder {
+
+    /** Maximum ply for which killer moves are kept. */
+    static final int MAX_PLY = 128;
+
+    /** Forget all killer moves and history. */
+    void clear() {
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, 0);
+        }
+        for (int[] history : _history) {
+            Arrays.fill(history, 0);
+        }
+    }
+
+    /** Prepare for a new search: forget killer moves and reduce the
+     *  weight of history from previous searches. */
+    void newSearch() {
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, 0);
+        }
+        for (int[] history : _history) {
+            for (int i = 0; i < history.length; i += 1) {
+                history[i] >>= 1;
+            }
+        }
+    }
+
+    /** Sort MOVES[0 .. N-1], the legal moves in position BOARD at ply PLY,
+     *  into search order, putting HASHMOVE (if not 0) first. */
+    void order(Board board, int[] moves, int n, int hashMove, int ply) {
+        int[] history = _history[side(board.turn())];
+        int[] killers = ply < MAX_PLY ? _killers[ply] : NO_KILLERS;
+        int kingIndex = board.kingIndex();
+        for (int i = 0; i < n; i += 1) {
+            int move = moves[i];
+            int score;
+            if (move == hashMove) {
+                score = HASH_SCORE;
+            } else if (board.mayCapture(move)) {
+                score = CAPTURE_SCORE;
+            } else if (Move.fromIndex(move) == kingIndex) {
+                score = KING_SCORE;
+            } else if (move == killers[0]) {
+                score = KILLER_SCORE;
+            } else if (move == killers[1]) {
+                score = KILLER_SCORE - 1;
+            } else {
+                score = history[move];
+            }
+            int j;
+            for (j = i; j > 0 && _scores[j - 1] < score; j -= 1) {
+                _scores[j] = _scores[j - 1];
+                moves[j] = moves[j - 1];
+            }
+            _scores[j] = score;
+            moves[j] = move;
+        }
+    }
+
+    /** Record that MOVE by SIDE caused a cutoff at ply PLY of a search
+     *  with DEPTH levels remaining below it.  Capturing moves are already
+     *  tried early, and are not recorded. */
+    void cutoff(Board board, int move, Piece side, int ply, int depth) {
+        if (board.mayCapture(move)) {
+            return;
+        }
+        if (ply < MAX_PLY && _killers[ply][0] != move) {
+            _killers[ply][1] = _killers[ply][0];
+            _killers[ply][0] = move;
+        }
+        int[] history = _history[side(side)];
+        history[move] += depth * depth;
+        if (history[move] >= KILLER_SCORE) {
+            for (int k = 0; k < history.length; k += 1) {
+                history[k] >>= 1;
+            }
+        }
+    }
+
+    /** Return the index of SIDE's history table. */
+    private static int side(Piece side) {
+        return side == BLACK ? 1 : 0;
+    }
+
+    /** Ordering scores of the categories of moves.  History scores are
+     *  kept below KILLER_SCORE - 1. */
+    private static final int HASH_SCORE = 1 << 30, CAPTURE_SCORE = 1 << 29,
+        KING_SCORE = 1 << 28, KILLER_SCORE = 1 << 27;
+
+    /** Killer moves used at plies beyond MAX_PLY. */
+    private static final int[] NO_KILLERS = new int[2];
+
+    /** _killers[p] holds the two most recent moves that caused cutoffs
+     *  at ply p, most recent first. */
+    private final int[][] _killers = new int[MAX_PLY][2];
+
+    /** _history[s][m] is the weight of cutoffs caused by the move encoded
+     *  as m when played by side s (see side). */
+    private final int[][] _history = new int[2][Move.CODE_LIMIT];
+
+    /** Ordering scores of the moves being ordered. */
+    private final int[] _scores = new int[Board.MAX_MOVES];
+}
@@ -0,0 +1,107 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Counts of the positions reachable from a given position in a fixed
+ *  number of moves ("perft"), used to verify the move generator against
+ *  known counts and to measure its speed.  Only Board.legalMoves,
+ *  Board.makeMove, and Board.undo are used, and moves at the last level
+ *  are counted without being made.  A position in which the game
+ *  is over has no successors, so it contributes to the count only when it
+ *  is reached at the full depth.
+ *  @author aarini
+ */
+final class Perft {
+
+    /** A counter that uses BOARD, which it modifies during a count but
+     *  restores afterwards. */
+    Perft(Board board) {
+        _board = board;
+    }
+
+    /** Return the number of positions reached from my board by all
+     *  sequences of DEPTH legal moves. */
+    long count(int depth) {
+        return count(depth, 0);
+    }
+
+    /** Return the number of positions reached from BOARD by all sequences
+     *  of DEPTH legal moves, counting the subtrees below each first move
+     *  as separate tasks in POOL. */
+    static long parallelCount(Board board, int depth, ForkJoinPool pool) {
+        if (depth == 0 || board.winner() != null) {
+            return depth == 0 ? 1 : 0;
+        }
+        List<Subtree> subtrees = new ArrayList<>();
+        for (Move move : board.legalMoves(board.turn())) {
+            Subtree subtree = new Subtree(board, move.code(), depth - 1);
+            pool.execute(subtree);
+            subtrees.add(subtree);
+        }
+        long total = 0;
+        for (Subtree subtree : subtrees) {
+            total += subtree.join();
+        }
+        return total;
+    }
+
+    /** Return the number of positions reached from my board by all
+     *  sequences of DEPTH legal moves, using my buffer for ply PLY for
+     *  the first of them. */
+    private long count(int depth, int ply) {
+        if (depth == 0) {
+            return 1;
+        } else if (_board.winner() != null) {
+            return 0;
+        }
+        if (ply == _moves.size()) {
+            _moves.add(new int[Board.MAX_MOVES]);
+        }
+        int[] moves = _moves.get(ply);
+        int n = _board.legalMoves(_board.turn(), moves);
+        if (depth == 1) {
+            return n;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            _board.makeMove(moves[i]);
+            total += count(depth - 1, ply + 1);
+            _board.undo();
+        }
+        return total;
+    }
+
+    /** The count of positions below one move, made on a private copy of
+     *  the board. */
+    private static class Subtree extends RecursiveTask<Long> {
+        /** The subtree of DEPTH moves following the move encoded as MOVE
+         *  from BOARD. */
+        Subtree(Board board, int move, int depth) {
+            _board = new Board(board);
+            _move = move;
+            _depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            _board.makeMove(_move);
+            return new Perft(_board).count(_depth);
+        }
+
+        /** My copy of the board, before _move. */
+        private final Board _board;
+        /** Encoding of the first move. */
+        private final int _move;
+        /** Number of moves following _move. */
+        private final int _depth;
+    }
+
+    /** The board whose successors I count. */
+    private final Board _board;
+
+    /** _moves.get(p) holds the moves being counted at ply p. */
+    private final List<int[]> _moves = new ArrayList<>();
+}
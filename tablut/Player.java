@@ -39,6 +39,23 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Return the statistics of my last search for a move, or null if I
+     *  do not search.  By default, returns null. */
+    SearchStats searchStats() {
+        return null;
+    }
+
+    /** Notify me that the position has changed: MOVE was just made, or
+     *  (if MOVE is null) the position was changed in some other way or
+     *  the game is over for me.  By default, does nothing. */
+    void positionChanged(Move move) {
+    }
+
+    /** Release any threads or other resources I hold.  I am not used
+     *  afterwards.  By default, does nothing. */
+    void close() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
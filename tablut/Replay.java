@@ -0,0 +1,369 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import ucb.util.CommandArgs;
+
+import static tablut.Piece.*;
+import static tablut.Square.*;
+import static tablut.Utils.*;
+
+/** Batch replay of the game logs written by the --log option of Main.
+ *  The named files, and all regular files under the named directories,
+ *  are streamed to a pool of worker threads, each of which replays whole
+ *  files on its own reusable Board, so that any number of games may be
+ *  checked in one run.  Each log is parsed and interpreted as Controller
+ *  parses and interprets its commands: a game starts at the beginning of
+ *  the file and at each "new" command, and the file ends at "quit".
+ *  Every move is checked for legality; moves, "undo", "limit", and
+ *  "toggle" change the board, and other commands are ignored.  A log
+ *  contains only legal moves, so the first illegal move makes its game
+ *  invalid, and the rest of that game is skipped.  Malformed commands,
+ *  which Controller reports and ignores, are reported and ignored.
+ *
+ *  For each game with at least one move or error, one line of
+ *  comma-separated values is written to the standard output:
+ *      game,FILE,N,MOVES,RESULT,ERROR
+ *  where N numbers the games of FILE from 1, MOVES is the number of moves
+ *  on the board at the end, RESULT is white, black, or none (unfinished),
+ *  and ERROR is empty or describes the illegal move, with its line number.
+ *  The game line is preceded, in the order of the log, by one line
+ *      command,FILE,N,LINE,ERROR
+ *  for each malformed command in the game, at line LINE of FILE, and
+ *  with --evaluate=DEPTH, by one line
+ *      position,FILE,N,PLY,MOVE,SCORE
+ *  for each move, giving the value of the position after it found by a
+ *  search of DEPTH moves (positive values favor white).  Lines for a game
+ *  are written together, but games from different files are interleaved.
+ *  Totals are reported on the standard error at the end.
+ *  @author aarini
+ */
+public class Replay {
+
+    /** Replay the logs named in ARGS.  The options are --threads=N, the
+     *  number of worker threads (by default, one per processor),
+     *  --evaluate=DEPTH, the search depth of position evaluations (none
+     *  if absent), and --hash=MB, the size of each worker's transposition
+     *  table. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--threads=(\\d+){0,1} --evaluate=(\\d+){0,1}"
+                            + " --hash=(\\d+){0,1} --={1,}", args);
+        if (!options.ok()) {
+            System.err.println("Usage: java tablut.Replay [--threads=N]"
+                               + " [--evaluate=DEPTH] [--hash=MB]"
+                               + " PATH ...");
+            System.exit(1);
+        }
+        try {
+            int threads =
+                intOption(options, "--threads",
+                          Runtime.getRuntime().availableProcessors());
+            int depth = intOption(options, "--evaluate", 0);
+            int hash = intOption(options, "--hash",
+                                 TranspositionTable.DEFAULT_MEGABYTES);
+            Replay replay = new Replay(threads, depth, hash, System.out);
+            replay.run(options.get("--"));
+            replay.report(System.err);
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: number too large");
+            System.exit(1);
+        } catch (IOException | UncheckedIOException excp) {
+            System.err.printf("Could not read files: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A replay on THREADS worker threads, writing results to OUT.  If
+     *  DEPTH is positive, each position is also evaluated by a search of
+     *  DEPTH moves using a transposition table of TABLEMEGABYTES megabytes
+     *  per thread. */
+    Replay(int threads, int depth, int tableMegabytes, PrintStream out) {
+        _threads = Math.max(1, threads);
+        _out = out;
+        if (depth > 0) {
+            _template = new AI();
+            _template.setDepthLimit(depth);
+            _template.setTimeLimit(0);
+            _template.setTableSize(tableMegabytes);
+        } else {
+            _template = null;
+        }
+    }
+
+    /** Replay the files named by PATHS and all regular files in the
+     *  directories they name, returning when all have been replayed.
+     *  Files are read as they are found, with at most a few per thread
+     *  waiting for a worker at any time. */
+    void run(List<String> paths) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        Semaphore pending = new Semaphore(QUEUED_FILES_PER_THREAD * _threads);
+        try {
+            for (String path : paths) {
+                try (Stream<Path> files = Files.walk(Paths.get(path))) {
+                    files.filter(Files::isRegularFile)
+                        .forEach(file -> {
+                            pending.acquireUninterruptibly();
+                            pool.execute(() -> {
+                                try {
+                                    _workers.get().replay(file);
+                                } finally {
+                                    pending.release();
+                                }
+                            });
+                        });
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException excp) {
+                throw new IllegalStateException("replay interrupted");
+            }
+        }
+    }
+
+    /** Report the totals of the games replayed so far on OUT. */
+    synchronized void report(PrintStream out) {
+        out.printf("%d files, %d games, %d moves: %d white wins,"
+                   + " %d black wins, %d unfinished, %d invalid;"
+                   + " %d malformed commands%n",
+                   _files, _games, _moves, _whiteWins, _blackWins,
+                   _unfinished, _invalid, _malformed);
+        out.flush();
+    }
+
+    /** Write the lines for a game: LINES, the command and position lines,
+     *  of which MALFORMED are command lines, followed by the game line for
+     *  game N of FILE, which ended after MOVES moves with WINNER (null if
+     *  none) having won, and with ERROR (null if none) found. */
+    private synchronized void record(String file, int n, CharSequence lines,
+                                     int malformed, int moves, Piece winner,
+                                     String error) {
+        _out.append(lines);
+        _out.printf("game,%s,%d,%d,%s,%s%n", file, n, moves,
+                    winner == null ? "none" : winner.toName().toLowerCase(),
+                    error == null ? "" : error);
+        _games += 1;
+        _moves += moves;
+        _malformed += malformed;
+        if (error != null) {
+            _invalid += 1;
+        } else if (winner == WHITE) {
+            _whiteWins += 1;
+        } else if (winner == BLACK) {
+            _blackWins += 1;
+        } else {
+            _unfinished += 1;
+        }
+    }
+
+    /** Record that a file has been replayed, after reporting ERROR on it
+     *  if that is not null. */
+    private synchronized void fileDone(Path file, String error) {
+        if (error != null) {
+            _out.printf("error,%s,%s%n", file, error);
+        }
+        _files += 1;
+        _out.flush();
+    }
+
+    /** The state of one worker thread: a board on which it replays its
+     *  games, and the AI, if any, that evaluates their positions. */
+    private class Worker {
+        /** A worker with an initial board. */
+        Worker() {
+            _evaluator =
+                _template == null ? null : (AI) _template.create(WHITE, null);
+        }
+
+        /** Replay all games in FILE. */
+        void replay(Path file) {
+            if (_board.moveLimit() != 0) {
+                _board = new Board();
+            }
+            _file = file.toString();
+            _game = 0;
+            String error = null;
+            try (BufferedReader input = Files.newBufferedReader(file)) {
+                startGame();
+                int lineNumber = 0;
+                String line;
+                while ((line = input.readLine()) != null) {
+                    lineNumber += 1;
+                    if (!execute(line, lineNumber)) {
+                        break;
+                    }
+                }
+                endGame();
+            } catch (IOException | UncheckedIOException excp) {
+                error = excp.getMessage();
+            }
+            fileDone(file, error);
+        }
+
+        /** Execute LINE, line LINENUMBER of my file.  Return false iff it
+         *  ends the file. */
+        private boolean execute(String line, int lineNumber) {
+            int n;
+            try {
+                n = Controller.parse(line, _words);
+            } catch (IllegalArgumentException excp) {
+                malformed(lineNumber, excp.getMessage());
+                return true;
+            }
+            if (n == 0) {
+                return true;
+            }
+            switch (_words[0]) {
+            case "quit":
+                return false;
+            case "new":
+                endGame();
+                startGame();
+                return true;
+            default:
+                break;
+            }
+            if (_error == null) {
+                try {
+                    executeCommand(n, lineNumber);
+                } catch (IllegalArgumentException excp) {
+                    malformed(lineNumber, excp.getMessage());
+                }
+            }
+            return true;
+        }
+
+        /** Perform the command of N words in _words, other than "new" and
+         *  "quit", at line LINENUMBER of my file, on my board, raising an
+         *  IllegalArgumentException if it cannot be performed, except that
+         *  an illegal move makes the current game invalid. */
+        private void executeCommand(int n, int lineNumber) {
+            if (n == 1 && Move.isGrammaticalMove(_words[0])) {
+                Move move = Move.mv(_words[0]);
+                if (move == null || _board.winner() != null
+                    || !_board.isLegal(move)) {
+                    _error = String.format("line %d: illegal move %s",
+                                           lineNumber, _words[0]);
+                    return;
+                }
+                _board.makeMove(move);
+                evaluate(move);
+                return;
+            }
+            switch (_words[0]) {
+            case "undo":
+                if (_board.moveCount() > 1) {
+                    _board.undo();
+                    _board.undo();
+                }
+                break;
+            case "limit":
+                try {
+                    Controller.setLimit(_board, _words[1]);
+                } catch (IllegalArgumentException excp) {
+                    throw error("bad move limit: %s", _words[1]);
+                }
+                break;
+            case "toggle":
+                Controller.toggle(_board, sq(_words[1]));
+                break;
+            default:
+                break;
+            }
+        }
+
+        /** Record a command line for the malformed command at line
+         *  LINENUMBER of my file, which raised an error with MESSAGE. */
+        private void malformed(int lineNumber, String message) {
+            _lines.append(String.format("command,%s,%d,%d,%s%n", _file,
+                                        _game + 1, lineNumber, message));
+            _malformed += 1;
+        }
+
+        /** If I have an evaluator, record the value of my board, which
+         *  has just been reached by MOVE. */
+        private void evaluate(Move move) {
+            if (_evaluator != null) {
+                _lines.append(String.format("position,%s,%d,%d,%s,%d%n",
+                                                _file, _game + 1,
+                                                _board.moveCount(), move,
+                                                _evaluator
+                                                .evaluate(_board)));
+            }
+        }
+
+        /** Start a new game on my board. */
+        private void startGame() {
+            _board.init();
+            _error = null;
+            _lines.setLength(0);
+            _malformed = 0;
+        }
+
+        /** Record the current game, if any moves were made in it or it had
+         *  any errors. */
+        private void endGame() {
+            if (_board.moveCount() > 0 || _error != null || _malformed > 0) {
+                _game += 1;
+                record(_file, _game, _lines, _malformed, _board.moveCount(),
+                       _board.winner(), _error);
+            }
+        }
+
+        /** The board on which games are replayed. */
+        private Board _board = new Board();
+        /** Evaluator of positions, or null if positions are not
+         *  evaluated. */
+        private final AI _evaluator;
+        /** Name of the file being replayed. */
+        private String _file;
+        /** Number of games of _file recorded so far. */
+        private int _game;
+        /** Description of the illegal move that made the current game
+         *  invalid, or null if none. */
+        private String _error;
+        /** Command and position lines of the current game. */
+        private final StringBuilder _lines = new StringBuilder();
+        /** Number of malformed commands in the current game. */
+        private int _malformed;
+        /** The words of the command being executed. */
+        private final String[] _words = new String[Controller.MAX_WORDS];
+    }
+
+    /** Number of files that may wait for a worker, per worker. */
+    private static final int QUEUED_FILES_PER_THREAD = 4;
+
+    /** Number of worker threads. */
+    private final int _threads;
+    /** Destination of results. */
+    private final PrintStream _out;
+    /** Template of the evaluating AIs, or null if positions are not
+     *  evaluated. */
+    private final AI _template;
+    /** The worker state of each thread. */
+    private final ThreadLocal<Worker> _workers =
+        ThreadLocal.withInitial(Worker::new);
+
+    /** Totals of files, games, and moves replayed. */
+    private long _files, _games, _moves;
+    /** Numbers of games by outcome. */
+    private long _whiteWins, _blackWins, _unfinished, _invalid;
+    /** Number of malformed commands. */
+    private long _malformed;
+}
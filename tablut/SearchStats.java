@@ -0,0 +1,194 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static tablut.Utils.*;
+
+/** Statistics of a game-tree search: numbers of nodes searched in the
+ *  main search and in quiescence, cutoffs, transposition-table activity,
+ *  and the nodes and time taken by each completed iteration of iterative
+ *  deepening.  Each searching thread keeps its own statistics, which are
+ *  combined with add.
+ *  @author aarini
+ */
+final class SearchStats {
+
+    /** Reset all statistics to zero. */
+    void clear() {
+        _nodes = _quiescenceNodes = _cutoffs = _firstMoveCutoffs = 0;
+        _probes = _hits = _stores = 0;
+        _nanos = 0;
+        _depths.clear();
+        _iterationNodes.clear();
+        _iterationNanos.clear();
+    }
+
+    /** Add the counts of OTHER to mine.  My iterations and time are
+     *  unchanged. */
+    void add(SearchStats other) {
+        _nodes += other._nodes;
+        _quiescenceNodes += other._quiescenceNodes;
+        _cutoffs += other._cutoffs;
+        _firstMoveCutoffs += other._firstMoveCutoffs;
+        _probes += other._probes;
+        _hits += other._hits;
+        _stores += other._stores;
+    }
+
+    /** Set my iterations to those of OTHER. */
+    void copyIterations(SearchStats other) {
+        _depths.clear();
+        _depths.addAll(other._depths);
+        _iterationNodes.clear();
+        _iterationNodes.addAll(other._iterationNodes);
+        _iterationNanos.clear();
+        _iterationNanos.addAll(other._iterationNanos);
+    }
+
+    /** Record a node of the main search. */
+    void node() {
+        _nodes += 1;
+    }
+
+    /** Record a node of quiescence search. */
+    void quiescenceNode() {
+        _quiescenceNodes += 1;
+    }
+
+    /** Record a cutoff, caused by the first move searched iff FIRST. */
+    void cutoff(boolean first) {
+        _cutoffs += 1;
+        if (first) {
+            _firstMoveCutoffs += 1;
+        }
+    }
+
+    /** Record a transposition-table probe, which found an entry iff
+     *  HIT. */
+    void probe(boolean hit) {
+        _probes += 1;
+        if (hit) {
+            _hits += 1;
+        }
+    }
+
+    /** Record a transposition-table store. */
+    void store() {
+        _stores += 1;
+    }
+
+    /** Record that an iteration to DEPTH completed NANOS nanoseconds after
+     *  the start of the search. */
+    void iteration(int depth, long nanos) {
+        _depths.add(depth);
+        _iterationNodes.add(nodes());
+        _iterationNanos.add(nanos);
+    }
+
+    /** Record that the whole search took NANOS nanoseconds. */
+    void setTime(long nanos) {
+        _nanos = nanos;
+    }
+
+    /** Return the total number of nodes searched, including quiescence
+     *  nodes. */
+    long nodes() {
+        return _nodes + _quiescenceNodes;
+    }
+
+    /** Return the number of quiescence nodes searched. */
+    long quiescenceNodes() {
+        return _quiescenceNodes;
+    }
+
+    /** Return the number of transposition-table probes. */
+    long probes() {
+        return _probes;
+    }
+
+    /** Return the number of transposition-table probes that found an
+     *  entry. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the greatest depth completed, or 0 if none. */
+    int depth() {
+        return _depths.isEmpty() ? 0 : _depths.get(_depths.size() - 1);
+    }
+
+    /** Return the number of nodes searched per second. */
+    long nodesPerSecond() {
+        return _nanos == 0 ? 0 : nodes() * NANOS_PER_SECOND / _nanos;
+    }
+
+    /** Return the fraction of cutoffs caused by the first move searched
+     *  (0 if there were no cutoffs). */
+    double firstMoveCutoffRate() {
+        return _cutoffs == 0 ? 0 : (double) _firstMoveCutoffs / _cutoffs;
+    }
+
+    /** Return the fraction of transposition-table probes that found an
+     *  entry (0 if there were none). */
+    double hitRate() {
+        return _probes == 0 ? 0 : (double) _hits / _probes;
+    }
+
+    /** Return the effective branching factor: the ratio of the nodes
+     *  searched by the last completed iteration to those of the one
+     *  before, or 0 if fewer than two iterations completed. */
+    double branchingFactor() {
+        int n = _iterationNodes.size();
+        if (n < 2) {
+            return 0;
+        }
+        long last = _iterationNodes.get(n - 1) - _iterationNodes.get(n - 2),
+            previous = _iterationNodes.get(n - 2)
+                - (n > 2 ? _iterationNodes.get(n - 3) : 0);
+        return previous == 0 ? 0 : (double) last / previous;
+    }
+
+    /** Return a description of these statistics, as a list of lines: a
+     *  summary followed by one line for each iteration. */
+    List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("depth %d, %d nodes (%d quiescence) in %d ms,"
+                                + " %d nodes/s", depth(), nodes(),
+                                _quiescenceNodes, _nanos / NANOS_PER_MILLI,
+                                nodesPerSecond()));
+        lines.add(String.format("first-move cutoffs %.1f%% of %d,"
+                                + " branching factor %.2f",
+                                100 * firstMoveCutoffRate(), _cutoffs,
+                                branchingFactor()));
+        lines.add(String.format("table hits %.1f%% of %d probes, %d stores",
+                                100 * hitRate(), _probes, _stores));
+        long nodes0 = 0;
+        for (int i = 0; i < _depths.size(); i += 1) {
+            lines.add(String.format("iteration %d: %d nodes, %d ms",
+                                    _depths.get(i),
+                                    _iterationNodes.get(i) - nodes0,
+                                    _iterationNanos.get(i)
+                                    / NANOS_PER_MILLI));
+            nodes0 = _iterationNodes.get(i);
+        }
+        return lines;
+    }
+
+    /** Numbers of main-search and quiescence nodes. */
+    private long _nodes, _quiescenceNodes;
+    /** Numbers of cutoffs, and of those caused by the first move. */
+    private long _cutoffs, _firstMoveCutoffs;
+    /** Numbers of transposition-table probes, successful probes, and
+     *  stores. */
+    private long _probes, _hits, _stores;
+    /** Duration of the search in nanoseconds. */
+    private long _nanos;
+    /** Depths of the completed iterations. */
+    private final List<Integer> _depths = new ArrayList<>();
+    /** Total nodes searched at the end of each completed iteration. */
+    private final List<Long> _iterationNodes = new ArrayList<>();
+    /** Nanoseconds from the start of the search to the end of each
+     *  completed iteration. */
+    private final List<Long> _iterationNanos = new ArrayList<>();
+}
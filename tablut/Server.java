@@ -0,0 +1,109 @@
+package tablut;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/** A server that plays any number of simultaneous games of Tablut with
+ *  clients connected over a local socket, all in one JVM.  Each
+ *  connection is a session that runs its own Controller on its own thread,
+ *  reading commands from the connection and writing its output there,
+ *  exactly as Main does with the standard input and output.  The AIs of
+ *  all sessions are created from one template and share a limited number
+ *  of search permits, one per searching thread, so that at most that many
+ *  threads (typically one per processor) search at once, while the
+ *  session threads themselves spend most of their time waiting for
+ *  input.  The helper threads of all their searches come from one pool
+ *  of that size, and they share one transposition table of the size
+ *  given by the template, so that the memory and threads used do not
+ *  grow with the number of sessions.
+ *  @author aarini
+ */
+final class Server {
+
+    /** A server whose sessions create AIs from TEMPLATE, with at most
+     *  SEARCHES threads (but at least enough for one AI) searching at
+     *  once. */
+    Server(AI template, int searches) {
+        int threads = Math.max(searches, template.threads());
+        _template = template;
+        _template.setSearchPermits(new Semaphore(threads));
+        _template.setSearchExecutor(Executors.newFixedThreadPool(threads,
+            r -> {
+                Thread helper = new Thread(r, "tablut-search");
+                helper.setDaemon(true);
+                return helper;
+            }));
+        _template.setTable(new TranspositionTable(template.tableSize()));
+        _sessions = Executors.newCachedThreadPool(r -> {
+            Thread session = new Thread(r, "tablut-session");
+            session.setDaemon(true);
+            return session;
+        });
+    }
+
+    /** Return the address denoted by ADDRESS: a TCP port on the loopback
+     *  interface if ADDRESS is a number, and otherwise the path of a
+     *  Unix-domain socket (which must not yet exist). */
+    static SocketAddress address(String address) {
+        if (address.matches("\\d+")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                         Integer.parseInt(address));
+        }
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    /** Accept connections at ADDRESS and play a game session with each,
+     *  until the program is terminated. */
+    void serve(SocketAddress address) throws IOException {
+        StandardProtocolFamily family =
+            address instanceof UnixDomainSocketAddress
+            ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET;
+        try (ServerSocketChannel server = ServerSocketChannel.open(family)) {
+            server.bind(address);
+            while (true) {
+                SocketChannel client = server.accept();
+                _sessions.execute(() -> session(client));
+            }
+        }
+    }
+
+    /** Play a session with the client connected by CLIENT, closing the
+     *  connection and releasing the threads of the session's players at
+     *  the end. */
+    private void session(SocketChannel client) {
+        Controller game = null;
+        try (client) {
+            PrintStream out =
+                new PrintStream(Channels.newOutputStream(client), true);
+            game = new Controller(new NullView(), null,
+                                  new TextReporter(out, out),
+                                  new TextPlayer(), _template, false,
+                                  Channels.newInputStream(client), out);
+            out.println(Main.VERSION);
+            game.play();
+        } catch (IOException excp) {
+            /* Ignore IOException: the client has gone. */
+        } finally {
+            if (game != null) {
+                game.close();
+            }
+        }
+    }
+
+    /** Template of the AIs of all sessions. */
+    private final AI _template;
+
+    /** Threads running sessions. */
+    private final ExecutorService _sessions;
+}
@@ -56,8 +56,7 @@ final class Square {
 
     /** Return true iff I am on the edge of the board. */
     boolean isEdge() {
-        return (_row == 0 || _col == 0
-                || _row == BOARD_SIZE - 1 || _col == BOARD_SIZE - 1);
+        return _edge;
     }
 
     /** Definitions of direction for rookMove.  DIR[k] = (dcol, drow)
@@ -155,6 +154,22 @@ final class Square {
         return sq(col.charAt(0) - 'a', row.charAt(0) - '1');
     }
 
+    /** Return true iff C designates a column (a-i). */
+    static boolean isColumn(char c) {
+        return c >= 'a' && c < 'a' + BOARD_SIZE;
+    }
+
+    /** Return true iff C designates a row (1-9). */
+    static boolean isRow(char c) {
+        return c >= '1' && c < '1' + BOARD_SIZE;
+    }
+
+    /** Return true iff POSN is a square designation, as matched by SQ. */
+    static boolean isSquare(String posn) {
+        return posn.length() == 2 && isColumn(posn.charAt(0))
+            && isRow(posn.charAt(1));
+    }
+
     /** Return the (unique) Square denoting the position in POSN, in the
      *  standard text format for a square (e.g. a4). POSN must be a
      *  valid square designation. */
@@ -170,6 +185,8 @@ final class Square {
         _col = index % BOARD_SIZE;
         _str = String.format("%c%d", (char) ('a' + _col), 1 + _row);
         sqPiece = Piece.EMPTY;
+        _edge = (_row == 0 || _col == 0
+                 || _row == BOARD_SIZE - 1 || _col == BOARD_SIZE - 1);
     }
 
     /** A convenience class to represent mutable lists of squares.  This
@@ -247,6 +264,9 @@ final class Square {
     /** My String denotation. */
     private final String _str;
 
+    /** True iff I am on the edge of the board. */
+    private final boolean _edge;
+
     /** My String denotation. */
     private Piece sqPiece;
 
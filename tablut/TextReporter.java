@@ -1,24 +1,41 @@
 package tablut;
 
+import java.io.PrintStream;
+
 /** A Reporter that uses the standard output for messaeges.
  *  @author P. N. Hilfinger
  */
 class TextReporter implements Reporter {
 
+    /** A Reporter that writes to the standard output and (for errors) the
+     *  standard error. */
+    TextReporter() {
+        this(System.out, System.err);
+    }
+
+    /** A Reporter that writes to OUT and (for errors) ERR. */
+    TextReporter(PrintStream out, PrintStream err) {
+        _out = out;
+        _err = err;
+    }
+
     @Override
     public void reportError(String fmt, Object... args) {
-        System.err.printf(fmt, args);
-        System.err.println();
+        _err.printf(fmt, args);
+        _err.println();
     }
 
     @Override
     public void reportNote(String fmt, Object... args) {
-        System.out.printf("* " + fmt, args);
-        System.out.println();
+        _out.printf("* " + fmt, args);
+        _out.println();
     }
 
     @Override
     public void reportMove(Move move) {
-        System.out.printf("* %s%n", move);
+        _out.printf("* %s%n", move);
     }
+
+    /** Destinations of notes and moves, and of errors. */
+    private final PrintStream _out, _err;
 }
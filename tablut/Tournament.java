@@ -0,0 +1,328 @@
+package tablut;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.*;
+import static tablut.Piece.*;
+import static tablut.Utils.*;
+
+/** A match between two AI configurations, played without a display or
+ *  Controller.  Games are played concurrently, and come in pairs that
+ *  start from the same position, reached by a few random moves chosen with
+ *  a seed determined by the pair, with each engine playing white in one
+ *  game of the pair.  A game that runs to MAX_PLIES moves is a draw.
+ *  After each game, a sequential probability ratio test (SPRT) of the
+ *  hypothesis that the first engine is ELO0 Elo points stronger than the
+ *  second against the hypothesis that it is ELO1 points stronger decides
+ *  whether to stop early; the remaining games are then skipped.
+ *  @author aarini
+ */
+final class Tournament {
+
+    /** A match of GAMES games between FIRST and SECOND, which are AI
+     *  templates whose descriptions are NAMES[0] and NAMES[1], using
+     *  openings determined by SEED, playing on THREADS threads, and
+     *  stopping early by an SPRT between Elo differences ELO0 and ELO1. */
+    Tournament(AI first, AI second, String[] names, int games, long seed,
+               int threads, double elo0, double elo1) {
+        _engines = new AI[] { first, second };
+        _names = names;
+        _games = games;
+        _seed = seed;
+        _threads = max(1, threads);
+        _elo0 = elo0;
+        _elo1 = elo1;
+    }
+
+    /** Return an AI template configured by SPEC, a comma-separated list of
+     *  settings of the form NAME:VALUE, where NAME is depth, time, or hash,
+     *  or null, lmr, or futility with VALUE 0 (off) or 1 (on) (see the
+     *  corresponding setters of AI).  Settings that are absent
+     *  have their default values, except that there is no time limit
+     *  unless time is given, so that by default each move is found by a
+     *  search of fixed depth and matches with the same seed are
+     *  reproducible.  Each engine searches on one thread, since the games
+     *  themselves are played concurrently. */
+    static AI engine(String spec) {
+        AI engine = new AI();
+        engine.setTimeLimit(0);
+        for (String setting : spec.split(",")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            String[] parts = setting.split(":");
+            if (parts.length != 2) {
+                throw error("bad engine setting: %s", setting);
+            }
+            int value;
+            try {
+                value = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException excp) {
+                throw error("bad engine setting: %s", setting);
+            }
+            switch (parts[0]) {
+            case "depth":
+                engine.setDepthLimit(value);
+                break;
+            case "time":
+                engine.setTimeLimit(value);
+                break;
+            case "hash":
+                engine.setTableSize(value);
+                break;
+            case "null":
+                engine.setNullMovePruning(value != 0);
+                break;
+            case "lmr":
+                engine.setReductions(value != 0);
+                break;
+            case "futility":
+                engine.setFutilityPruning(value != 0);
+                break;
+            default:
+                throw error("unknown engine setting: %s", parts[0]);
+            }
+        }
+        return engine;
+    }
+
+    /** Play the match, reporting each game and the final results on
+     *  OUT.  Each thread creates one player from each engine, with its
+     *  transposition table, and uses them for all the games it plays. */
+    void run(PrintStream out) {
+        _out = out;
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        List<AI> created = new ArrayList<>();
+        ThreadLocal<AI[]> players = ThreadLocal.withInitial(() -> {
+            AI[] pair = new AI[2];
+            for (int i = 0; i < 2; i += 1) {
+                pair[i] = (AI) _engines[i].create(WHITE, null);
+            }
+            synchronized (created) {
+                created.add(pair[0]);
+                created.add(pair[1]);
+            }
+            return pair;
+        });
+        List<Callable<Void>> games = new ArrayList<>();
+        for (int g = 0; g < _games; g += 1) {
+            int game = g;
+            games.add(() -> {
+                play(game, players.get());
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : pool.invokeAll(games)) {
+                result.get();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("tournament interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("game failed: "
+                                            + cause.getMessage());
+        } finally {
+            pool.shutdown();
+            synchronized (created) {
+                for (AI player : created) {
+                    player.close();
+                }
+            }
+        }
+        report();
+    }
+
+    /** Play game number GAME between PLAYERS, created from the first and
+     *  second engines, unless the match has been decided, and record its
+     *  result.  The players forget their previous games first.  The first
+     *  engine plays white in even-numbered games. */
+    private void play(int game, AI[] players) {
+        if (_decided) {
+            return;
+        }
+        int white = game % 2;
+        Board board = new Board();
+        Random opening = new Random(_seed + game / 2);
+        for (int k = 0; k < OPENING_PLIES && board.winner() == null; k += 1) {
+            List<Move> moves = board.legalMoves(board.turn());
+            board.makeMove(moves.get(opening.nextInt(moves.size())));
+        }
+        players[0].clear();
+        players[1].clear();
+        while (board.winner() == null && board.moveCount() < MAX_PLIES) {
+            AI player = board.turn() == WHITE ? players[white]
+                : players[1 - white];
+            board.makeMove(player.findMove(board));
+        }
+        record(game, white, board.winner(), board.moveCount());
+    }
+
+    /** Record the result of game GAME, in which engine number WHITE played
+     *  white and WINNER (null for a draw) won after PLIES moves, and decide
+     *  whether to stop the match. */
+    private synchronized void record(int game, int white, Piece winner,
+                                     int plies) {
+        String result;
+        if (winner == null) {
+            _draws += 1;
+            result = "draw";
+        } else {
+            int engine = winner == WHITE ? white : 1 - white;
+            if (engine == 0) {
+                _wins += 1;
+            } else {
+                _losses += 1;
+            }
+            result = winner.toName() + " wins";
+        }
+        _out.printf("game %d: %s (white) vs %s (black): %s in %d moves%n",
+                    game + 1, _names[white], _names[1 - white], result,
+                    plies);
+        _out.flush();
+        double llr = llr();
+        if (llr <= lowerBound() || llr >= upperBound()) {
+            _decided = true;
+        }
+    }
+
+    /** Report the results of the match. */
+    private synchronized void report() {
+        int n = _wins + _losses + _draws;
+        _out.printf("Score of %s vs %s: %d - %d - %d  [%.3f] %d%n",
+                    _names[0], _names[1], _wins, _losses, _draws,
+                    n == 0 ? 0.5 : score(), n);
+        if (n > 0) {
+            double margin = SIGNIFICANCE * sqrt(variance() / n);
+            _out.printf("Elo difference: %s +/- %s%n", format(elo(score())),
+                        format((elo(score() + margin)
+                                - elo(score() - margin)) / 2));
+        }
+        double llr = llr();
+        String verdict;
+        if (llr >= upperBound()) {
+            verdict = "H1 accepted";
+        } else if (llr <= lowerBound()) {
+            verdict = "H0 accepted";
+        } else {
+            verdict = "inconclusive";
+        }
+        _out.printf("SPRT (elo0 = %.1f, elo1 = %.1f): LLR %.2f"
+                    + " [%.2f, %.2f] %s%n", _elo0, _elo1, llr, lowerBound(),
+                    upperBound(), verdict);
+        _out.flush();
+    }
+
+    /** Return the first engine's mean score per game. */
+    private double score() {
+        return (_wins + 0.5 * _draws) / (_wins + _losses + _draws);
+    }
+
+    /** Return the variance of the first engine's score in one game. */
+    private double variance() {
+        double s = score();
+        return (_wins * (1 - s) * (1 - s) + _draws * (0.5 - s) * (0.5 - s)
+                + _losses * s * s) / (_wins + _losses + _draws);
+    }
+
+    /** Return the Elo difference corresponding to mean score S, which is
+     *  infinite for S outside (0, 1). */
+    private static double elo(double s) {
+        if (s <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        } else if (s >= 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return -ELO_SCALE * log10(1 / s - 1);
+    }
+
+    /** Return X, an Elo difference, to one decimal place, or "n/a" if it
+     *  is infinite or undefined (for mean scores of 0 or 1). */
+    private static String format(double x) {
+        return Double.isFinite(x) ? String.format("%.1f", x) : "n/a";
+    }
+
+    /** Return the mean score corresponding to Elo difference ELO. */
+    private static double expectedScore(double elo) {
+        return 1 / (1 + pow(10, -elo / ELO_SCALE));
+    }
+
+    /** Return the log-likelihood ratio of the results so far under the
+     *  hypotheses that the first engine is _elo1 or _elo0 Elo points
+     *  stronger, using the normal approximation to the distribution of
+     *  the total score.  Returns 0 until the results vary. */
+    private double llr() {
+        int n = _wins + _losses + _draws;
+        if (n == 0 || variance() == 0) {
+            return 0;
+        }
+        double s0 = expectedScore(_elo0), s1 = expectedScore(_elo1);
+        return n * (s1 - s0) * (2 * score() - s0 - s1) / (2 * variance());
+    }
+
+    /** Return the log-likelihood ratio below which the SPRT accepts the
+     *  null hypothesis. */
+    private static double lowerBound() {
+        return log(SPRT_BETA / (1 - SPRT_ALPHA));
+    }
+
+    /** Return the log-likelihood ratio above which the SPRT accepts the
+     *  alternative hypothesis. */
+    private static double upperBound() {
+        return log((1 - SPRT_BETA) / SPRT_ALPHA);
+    }
+
+    /** Number of random moves played at the start of each pair of
+     *  games. */
+    static final int OPENING_PLIES = 4;
+
+    /** Number of moves after which a game is drawn. */
+    static final int MAX_PLIES = 300;
+
+    /** Default Elo differences of the SPRT hypotheses. */
+    static final double DEFAULT_ELO0 = 0, DEFAULT_ELO1 = 10;
+
+    /** Error probabilities of the SPRT: of accepting H1 when H0 holds, and
+     *  of accepting H0 when H1 holds. */
+    private static final double SPRT_ALPHA = 0.05, SPRT_BETA = 0.05;
+
+    /** Number of standard deviations in the reported Elo margin (95%
+     *  confidence). */
+    private static final double SIGNIFICANCE = 1.96;
+
+    /** Elo points per factor of ten in odds. */
+    private static final double ELO_SCALE = 400;
+
+    /** The two engine templates. */
+    private final AI[] _engines;
+    /** Descriptions of _engines. */
+    private final String[] _names;
+    /** Number of games to play. */
+    private final int _games;
+    /** Seed of the opening of the first pair of games. */
+    private final long _seed;
+    /** Number of games played at once. */
+    private final int _threads;
+    /** Elo differences of the SPRT hypotheses. */
+    private final double _elo0, _elo1;
+
+    /** Destination of reports. */
+    private PrintStream _out;
+    /** Results of the first engine so far. */
+    private int _wins, _losses, _draws;
+    /** True once the SPRT has accepted a hypothesis. */
+    private volatile boolean _decided;
+}
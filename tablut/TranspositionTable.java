@@ -0,0 +1,134 @@
+package tablut;
+
+import java.util.Arrays;
+
+/** A fixed-size table of previously searched positions, indexed by
+ *  Board.key().  The table is divided into a power-of-two number of
+ *  two-entry buckets.  The first entry of a bucket is depth-preferred:
+ *  it is replaced only by a search of at least the same depth (or of the
+ *  same position).  The second entry is always replaced.
+ *  An entry is returned by probe as a single long, which is decoded by
+ *  the static methods depth, bound, score, and move.
+ *  A table may be shared by several searching threads without locking.
+ *  Each slot holds the key exclusive-or'ed with the entry, so that a slot
+ *  torn by concurrent stores no longer matches either key and reads as
+ *  absent.
+ *  @author aarini
+ */
+final class TranspositionTable {
+
+    /** Bound types: the stored score is exact, a lower bound on the
+     *  true value, or an upper bound on the true value. */
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+    /** Value returned by probe for a position not in the table. */
+    static final long NONE = 0;
+
+    /** Default size of a table in megabytes. */
+    static final int DEFAULT_MEGABYTES = 16;
+
+    /** A table occupying at most MEGABYTES megabytes (and at least one
+     *  bucket). */
+    TranspositionTable(int megabytes) {
+        long buckets = Math.max(1L, ((long) megabytes << 20) / BUCKET_BYTES);
+        int logBuckets = 63 - Long.numberOfLeadingZeros(buckets);
+        logBuckets = Math.min(logBuckets, MAX_LOG_BUCKETS);
+        _mask = (1 << logBuckets) - 1;
+        _keys = new long[2 << logBuckets];
+        _data = new long[2 << logBuckets];
+    }
+
+    /** Return the number of entries in this table. */
+    int size() {
+        return _keys.length;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_data, NONE);
+    }
+
+    /** Return the entry for the position whose key is KEY, or NONE if
+     *  there is none. */
+    long probe(long key) {
+        int i = bucket(key);
+        long data0 = _data[i], data1 = _data[i + 1];
+        if ((_keys[i] ^ data0) == key) {
+            return data0;
+        } else if ((_keys[i + 1] ^ data1) == key) {
+            return data1;
+        }
+        return NONE;
+    }
+
+    /** Record that a search to DEPTH of the position whose key is KEY
+     *  produced SCORE, which is a bound of type BOUND on its value, and
+     *  that BEST (encoded as by Move.code, or 0 if none) was the best move
+     *  found. */
+    void store(long key, int depth, int bound, int score, int best) {
+        int i = bucket(key);
+        long entry = ((long) score & SCORE_MASK)
+            | ((long) Math.min(depth + 1, DEPTH_MASK) << DEPTH_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) best << MOVE_SHIFT);
+        long data0 = _data[i];
+        if (data0 == NONE || (_keys[i] ^ data0) == key
+            || depth >= depth(data0)) {
+            _keys[i] = key ^ entry;
+            _data[i] = entry;
+        } else {
+            _keys[i + 1] = key ^ entry;
+            _data[i + 1] = entry;
+        }
+    }
+
+    /** Return the search depth recorded in ENTRY. */
+    static int depth(long entry) {
+        return (int) ((entry >>> DEPTH_SHIFT) & DEPTH_MASK) - 1;
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) recorded in
+     *  ENTRY. */
+    static int bound(long entry) {
+        return (int) ((entry >>> BOUND_SHIFT) & BOUND_MASK);
+    }
+
+    /** Return the score recorded in ENTRY. */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the encoding (see Move.code) of the best move recorded in
+     *  ENTRY, or 0 if there is none. */
+    static int move(long entry) {
+        return (int) (entry >>> MOVE_SHIFT);
+    }
+
+    /** Return the index of the first entry of the bucket for KEY. */
+    private int bucket(long key) {
+        return ((int) (key ^ (key >>> 32)) & _mask) << 1;
+    }
+
+    /** Bytes occupied by one bucket. */
+    private static final int BUCKET_BYTES = 32;
+    /** Limit on the log of the number of buckets, so that the entry
+     *  arrays remain indexable by int. */
+    private static final int MAX_LOG_BUCKETS = 29;
+
+    /** Layout of a packed entry: score in the low 32 bits, then
+     *  depth + 1 (so that no stored entry equals NONE), bound type, and
+     *  the encoding of the best move. */
+    private static final long SCORE_MASK = 0xffffffffL;
+    /** Field positions and widths in a packed entry. */
+    private static final int DEPTH_SHIFT = 32, DEPTH_MASK = 0xff,
+        BOUND_SHIFT = 40, BOUND_MASK = 0x3, MOVE_SHIFT = 42;
+
+    /** Mask selecting a bucket number from a hash. */
+    private final int _mask;
+    /** Keys of the stored positions, each exclusive-or'ed with the
+     *  corresponding element of _data. */
+    private final long[] _keys;
+    /** Packed entries corresponding to _keys. */
+    private final long[] _data;
+}
@@ -1,5 +1,15 @@
 package tablut;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -22,6 +32,464 @@ public class UnitTest {
         Board b2 = new Board(b1);
         assertEquals(b1.encodedBoard(), b2.encodedBoard());
     }
-}
 
+    /** Put and get through the packed occupancy masks. */
+    @Test public void putGetTest() {
+        Board b = new Board();
+        assertEquals(Piece.KING, b.get(Board.THRONE));
+        assertEquals(Board.THRONE, b.kingPosition());
+        b.put(Piece.EMPTY, Board.THRONE);
+        assertNull(b.kingPosition());
+        b.put(Piece.KING, Square.sq(80));
+        assertEquals(Piece.KING, b.get(8, 8));
+        b.put(Piece.BLACK, Square.sq(64));
+        assertEquals(Piece.BLACK, b.get(Square.sq(64)));
+        assertEquals(Piece.EMPTY, b.get(Square.sq(63)));
+    }
+
+    /** Zobrist keys depend only on the position, not on how it arose. */
+    @Test public void keyTest() {
+        Board b1 = new Board(), b2 = new Board();
+        long initial = b1.key();
+        b1.makeMove(Move.mv("a4-b"));
+        b1.makeMove(Move.mv("e3-h"));
+        b1.makeMove(Move.mv("a6-b"));
+        b2.makeMove(Move.mv("a6-b"));
+        b2.makeMove(Move.mv("e3-h"));
+        b2.makeMove(Move.mv("a4-b"));
+        assertEquals(b1.encodedBoard(), b2.encodedBoard());
+        assertEquals(b1.key(), b2.key());
+        b1.undo();
+        assertNotEquals(b1.key(), b2.key());
+        b1.undo();
+        b1.undo();
+        assertEquals(initial, b1.key());
+    }
+
+    /** Positions set from encodedBoard strings have the same contents,
+     *  side to move, and key as the originals. */
+    @Test public void setPositionTest() {
+        Board b1 = new Board(), b2 = new Board();
+        b1.makeMove(Move.mv("a4-b"));
+        b1.makeMove(Move.mv("e3-h"));
+        b1.makeMove(Move.mv("a6-b"));
+        b2.setPosition(b1.encodedBoard());
+        assertEquals(b1.encodedBoard(), b2.encodedBoard());
+        assertEquals(b1.turn(), b2.turn());
+        assertEquals(b1.key(), b2.key());
+        try {
+            b2.setPosition("W" + b1.encodedBoard().substring(2));
+            fail("short encoded board accepted");
+        } catch (IllegalArgumentException excp) {
+            assertEquals(b1.encodedBoard(), b2.encodedBoard());
+        }
+    }
+
+    /** Undo restores captured pieces from the undo log. */
+    @Test public void undoCaptureTest() {
+        Board b = new Board();
+        b.put(Piece.BLACK, Square.sq("d3"));
+        b.put(Piece.BLACK, Square.sq("i3"));
+        String before = b.encodedBoard();
+        b.makeMove(Move.mv("i3-f"));
+        assertEquals(Piece.EMPTY, b.get(Square.sq("e3")));
+        assertEquals(Piece.BLACK, b.get(Square.sq("f3")));
+        b.undo();
+        assertEquals(before, b.encodedBoard());
+        assertEquals(0, b.moveCount());
+    }
+
+    /** The king's square is tracked through moves and undos, and reaching
+     *  the edge wins for white. */
+    @Test public void kingTrackingTest() {
+        Board b = new Board();
+        b.put(Piece.EMPTY, Square.sq("e6"));
+        b.put(Piece.EMPTY, Square.sq("e7"));
+        b.makeMove(Move.mv("a4-b"));
+        b.makeMove(Move.mv("e5-7"));
+        assertEquals(Square.sq("e7").index(), b.kingIndex());
+        assertNull(b.winner());
+        b.makeMove(Move.mv("b4-a"));
+        b.makeMove(Move.mv("e7-a"));
+        assertEquals(Square.sq("a7"), b.kingPosition());
+        assertEquals(Piece.WHITE, b.winner());
+        b.undo();
+        b.undo();
+        b.undo();
+        assertEquals(Board.THRONE.index(), b.kingIndex());
+        assertNull(b.winner());
+    }
+
+    /** Entries survive a round trip through the transposition table, and
+     *  the depth-preferred entry of a bucket is kept. */
+    @Test public void transpositionTableTest() {
+        TranspositionTable table = new TranspositionTable(0);
+        assertEquals(TranspositionTable.NONE, table.probe(42));
+        table.store(42, 5, TranspositionTable.LOWER, -17,
+                    Move.mv("a4-b").code());
+        table.store(43, 2, TranspositionTable.EXACT, 3, 0);
+        long entry = table.probe(42);
+        assertEquals(5, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+        assertEquals(-17, TranspositionTable.score(entry));
+        assertEquals(Move.mv("a4-b"),
+                     Move.mv(TranspositionTable.move(entry)));
+        assertEquals(0, TranspositionTable.move(table.probe(43)));
+    }
+
+    /** Positions, given as moves from the initial position, and the
+     *  numbers of positions reachable from them in 1, 2, and 3 moves. */
+    static final String[] PERFT_POSITIONS = {
+        "",
+        "d1-c c5-7 e2-i c7-5 i6-g e3-i",
+        "d9-8 c5-3 a6-d e3-f i6-f d5-c a4-1 f5-4 a5-4 e7-b i5-8 f3-h f1-2 "
+        + "g5-8 f2-1 f4-3 a4-6 g8-7 e9-c g7-1",
+    };
+    /** Perft counts of PERFT_POSITIONS. */
+    static final long[][] PERFT_COUNTS = {
+        { 80, 4400, 353200 },
+        { 85, 4375, 374984 },
+        { 102, 5763, 581640 },
+    };
+
+    /** Perft counts of reference positions, counted sequentially and in
+     *  parallel. */
+    @Test public void perftTest() {
+        for (int i = 0; i < PERFT_POSITIONS.length; i += 1) {
+            Board b = new Board();
+            for (String move : PERFT_POSITIONS[i].split(" ")) {
+                if (!move.isEmpty()) {
+                    b.makeMove(Move.mv(move));
+                }
+            }
+            String before = b.encodedBoard();
+            Perft perft = new Perft(b);
+            for (int depth = 1; depth <= 3; depth += 1) {
+                assertEquals(PERFT_COUNTS[i][depth - 1], perft.count(depth));
+            }
+            assertEquals(before, b.encodedBoard());
+            assertEquals(PERFT_COUNTS[i][2],
+                         Perft.parallelCount(b, 3, ForkJoinPool.commonPool()));
+        }
+    }
+
+    /** The command grammar of Controller when it matched commands with
+     *  regular expressions, after removing comments and surrounding
+     *  whitespace and converting to lower case. */
+    static final Pattern REGEX_COMMANDS =
+        Pattern.compile("quit|new|seed\\s+\\d+|dump|stats|undo"
+                        + "|(manual|auto)\\s+(white|black)|limit\\s+\\d+"
+                        + "|perft\\s+\\d+(\\s+parallel)?"
+                        + "|toggle\\s+[a-i][1-9]"
+                        + "|[a-i][1-9]-(?:[a-i]|[1-9])");
+
+    /** Commands accepted or rejected by the tokenizer, exactly as by
+     *  REGEX_COMMANDS. */
+    static final String[] COMMAND_CASES = {
+        "", "   ", "\t", "# comment", "  # comment", "quit", "Quit",
+        "QUIT # done", "quit now", "new", "new game", "dump", "stats",
+        "undo", "undo 2", "auto", "auto white", "AUTO Black", "auto red",
+        "auto  white  ", "auto\twhite", "manual", "manual black",
+        "Manual WHITE # me", "manual white black", "manualwhite",
+        "seed", "seed 42", "seed -1", "seed 4x", "seed 1.5", "seed 1 2",
+        "seed 99999999999999999999", "limit", "limit 10", "limit ten",
+        "limit -3", "limit 5 5", "perft 3", "perft 3 parallel",
+        "perft 3 Parallel", "perft parallel", "perft 3 serial",
+        "perft 3 parallel now", "toggle e5", "toggle E5", "toggle j5",
+        "toggle e0", "toggle e55", "toggle", "a4-b", "A4-B", "a4-4",
+        "a4-j", "a4-0", "a4 -b", "a4-b c5-7", "a4-b # move", "a4-bc",
+        "e5-e", "#quit", "quit#", "dump # stats", "stats\u000b",
+    };
+
+    /** The tokenizing command parser accepts exactly the commands that
+     *  the regular-expression grammar did, for COMMAND_CASES and for
+     *  random sequences of plausible words. */
+    @Test public void commandParseTest() {
+        String[] words = new String[Controller.MAX_WORDS];
+        for (String line : COMMAND_CASES) {
+            assertEquals(line, regexAccepts(line), parserAccepts(line, words));
+        }
+        String[] vocabulary = {
+            "quit", "new", "seed", "dump", "stats", "undo", "manual",
+            "auto", "white", "black", "limit", "perft", "parallel",
+            "toggle", "e5", "a4-b", "17", "x", "#", " ", "\t", "",
+        };
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i += 1) {
+            StringBuilder line = new StringBuilder();
+            for (int k = random.nextInt(5); k > 0; k -= 1) {
+                line.append(vocabulary[random.nextInt(vocabulary.length)]);
+                line.append(random.nextBoolean() ? " " : "");
+            }
+            String cmnd = line.toString();
+            assertEquals(cmnd, regexAccepts(cmnd),
+                         parserAccepts(cmnd, words));
+        }
+    }
+
+    /** Return true iff LINE is a valid command according to
+     *  REGEX_COMMANDS. */
+    private static boolean regexAccepts(String line) {
+        String cmnd = line.replaceFirst("#.*", "").trim().toLowerCase();
+        return cmnd.isEmpty() || REGEX_COMMANDS.matcher(cmnd).matches();
+    }
+
+    /** Return true iff Controller.parse accepts LINE, using WORDS. */
+    private static boolean parserAccepts(String line, String[] words) {
+        try {
+            Controller.parse(line, words);
+            return true;
+        } catch (IllegalArgumentException excp) {
+            return false;
+        }
+    }
 
+    /** Commands recorded in a game record, and the text to which each
+     *  is converted back. */
+    static final String[][] RECORDED_COMMANDS = {
+        { "a4-b", "a4-b" }, { " E3-H  # mine", "e3-h", "# mine" },
+        { "undo", "undo" }, { "new", "new" }, { "dump", "dump" },
+        { "stats", "stats" }, { "manual white", "manual white" },
+        { "Manual  Black", "manual black" }, { "auto white", "auto white" },
+        { "auto black", "auto black" }, { "seed 7", "seed 7" },
+        { "limit 20", "limit 20" }, { "toggle E5", "toggle e5" },
+        { "perft 3", "perft 3" }, { "perft 2 parallel", "perft 2 parallel" },
+        { "seed 99999999999999999999", "seed 99999999999999999999" },
+        { "bogus  command", "bogus  command" }, { "# note", "# note" },
+        { "quit", "quit" },
+    };
+
+    /** A game record converts back to the text of its header and
+     *  commands, including commands written in more than one batch
+     *  before the record is closed, and long text is truncated to whole
+     *  characters. */
+    @Test public void gameRecordTest() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GameRecord.Writer record =
+            new GameRecord.Writer(Channels.newChannel(bytes));
+        StringBuilder expected = new StringBuilder();
+        record.header(42, 30, true, false);
+        expected.append("# seed 42, limit 30, white manual, black auto\n");
+        for (String[] command : RECORDED_COMMANDS) {
+            record.command(command[0]);
+            for (int i = 1; i < command.length; i += 1) {
+                expected.append(command[i]).append("\n");
+            }
+        }
+        for (int i = 0; i < 5000; i += 1) {
+            record.command(i % 2 == 0 ? "a4-b" : "b4-a");
+            expected.append(i % 2 == 0 ? "a4-b\n" : "b4-a\n");
+        }
+        String filler = "x".repeat(1023);
+        record.comment(filler + "\u00e9");
+        expected.append("# ").append(filler).append("\n");
+        record.comment(filler.substring(1) + "\u20ac");
+        expected.append("# ").append(filler.substring(1)).append("\n");
+        record.close();
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(text, true, "UTF-8");
+        GameRecord.toText(new ByteArrayInputStream(bytes.toByteArray()),
+                          out);
+        assertEquals(expected.toString(),
+                     text.toString("UTF-8").replace("\r\n", "\n"));
+    }
+
+    /** Return a board with the side whose first letter is TURN to move,
+     *  holding only the pieces PLACEMENTS, each of which is the letter of
+     *  a piece (as in encodedBoard) followed by the name of its square. */
+    static Board board(char turn, String... placements) {
+        char[] encoded = new char[Square.SQUARE_LIST.size() + 1];
+        Arrays.fill(encoded, '-');
+        encoded[0] = turn;
+        for (String placement : placements) {
+            encoded[Square.sq(placement.substring(1)).index() + 1] =
+                placement.charAt(0);
+        }
+        Board b = new Board();
+        b.setPosition(new String(encoded));
+        return b;
+    }
+
+    /** Positions in which a side's only pieces are blocked or stuck, or
+     *  barely able to move, around the corners, edges, and throne. */
+    static final String[][] BLOCKED_POSITIONS = {
+        { "Ke5", "Bd5", "Bf5", "Be4", "Be6" },
+        { "Ka9", "Ba8", "Bb9" },
+        { "Ka9", "Ba8" },
+        { "Ka9", "We4", "Ba8", "Bb9", "Bd4", "Bf4", "Be3", "Be6" },
+        { "Ka9", "We4", "Ba8", "Bb9", "Bd4", "Bf4", "Be3" },
+        { "Ke4", "Bd4", "Bf4", "Be3", "Be6" },
+        { "Ke5", "Wd5", "Bc5", "Bd4", "Bd6", "Bf5", "Be4", "Be6" },
+        { "Ke6", "Ba1", "Wa2", "Wb1" },
+        { "Ke6", "Ba1", "Wa2" },
+        { "Ke6", "Bi9", "Bi8", "Bh9", "Wi7", "Wh8", "Wg9" },
+    };
+
+    /** hasMove agrees with legalMoves on BLOCKED_POSITIONS and on random,
+     *  densely filled boards, on which sides are often stuck. */
+    @Test public void hasMoveTest() {
+        for (String[] placements : BLOCKED_POSITIONS) {
+            checkHasMove(board('W', placements));
+        }
+        Random random = new Random(2);
+        String pieces = "WWBBB-";
+        for (int i = 0; i < 2000; i += 1) {
+            char[] encoded = new char[Square.SQUARE_LIST.size() + 1];
+            encoded[0] = random.nextBoolean() ? 'W' : 'B';
+            for (int k = 1; k < encoded.length; k += 1) {
+                encoded[k] = pieces.charAt(random.nextInt(pieces.length()));
+            }
+            encoded[random.nextInt(encoded.length - 1) + 1] = 'K';
+            Board b = new Board();
+            b.setPosition(new String(encoded));
+            checkHasMove(b);
+        }
+    }
+
+    /** Check that hasMove on B agrees with legalMoves for both sides. */
+    private static void checkHasMove(Board b) {
+        for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+            assertEquals(b.encodedBoard(), !b.legalMoves(side).isEmpty(),
+                         b.hasMove(side));
+        }
+    }
+
+    /** Return the encodings of the legal moves of SIDE on B, found by
+     *  walking from each piece along each direction to the first occupied
+     *  square, in increasing order. */
+    static int[] rayWalkMoves(Board b, Piece side) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = 0;
+        for (Square from : Square.SQUARE_LIST) {
+            Piece piece = b.get(from);
+            if (piece != side && (side != Piece.WHITE || piece != Piece.KING)) {
+                continue;
+            }
+            for (int dir = 0; dir < 4; dir += 1) {
+                for (int steps = 1; true; steps += 1) {
+                    Square to = from.rookMove(dir, steps);
+                    if (to == null || b.get(to) != Piece.EMPTY) {
+                        break;
+                    } else if (to != Board.THRONE || piece == Piece.KING) {
+                        moves[n] = Move.code(from.index(), to.index());
+                        n += 1;
+                    }
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(moves, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** The moves generated from the line-occupancy tables are those found
+     *  by walking along the rays from each piece, on random boards of
+     *  various densities. */
+    @Test public void legalMovesTest() {
+        Random random = new Random(3);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int i = 0; i < 2000; i += 1) {
+            char[] encoded = new char[Square.SQUARE_LIST.size() + 1];
+            encoded[0] = random.nextBoolean() ? 'W' : 'B';
+            int density = 1 + random.nextInt(8);
+            for (int k = 1; k < encoded.length; k += 1) {
+                int r = random.nextInt(10);
+                encoded[k] = r >= density ? '-' : r % 3 == 0 ? 'W' : 'B';
+            }
+            encoded[random.nextInt(encoded.length - 1) + 1] = 'K';
+            Board b = new Board();
+            b.setPosition(new String(encoded));
+            for (Piece side : new Piece[] { Piece.WHITE, Piece.BLACK }) {
+                int n = b.legalMoves(side, moves);
+                int[] found = Arrays.copyOf(moves, n);
+                Arrays.sort(found);
+                assertArrayEquals(b.encodedBoard(), rayWalkMoves(b, side),
+                                  found);
+            }
+        }
+    }
+
+    /** The AIs of all the sessions of a Server share one transposition
+     *  table and one pool of helper threads, rather than allocating their
+     *  own. */
+    @Test public void serverSharingTest() {
+        AI template = new AI();
+        template.setTableSize(1);
+        template.setDepthLimit(2);
+        template.setThreads(2);
+        new Server(template, 2);
+        Board b = new Board();
+        TranspositionTable table = null;
+        for (int i = 0; i < 4; i += 1) {
+            AI ai = (AI) template.create(Piece.BLACK, null);
+            assertNotNull(ai.findMove(b));
+            if (table == null) {
+                table = ai.table();
+            }
+            assertSame(table, ai.table());
+            ai.close();
+        }
+        assertNotNull(table);
+    }
+
+    /** A position in which the king, on d7, has a single path to the
+     *  edge, d7-9. */
+    static final String[] ESCAPE_POSITION = {
+        "Kd7", "Wd5", "We4", "Wf5", "We6",
+        "Bb7", "Bg7", "Ba4", "Ba5", "Bi5", "Bb2", "Bh2", "Ba9", "Bh8"
+    };
+
+    /** Return an AI searching to DEPTH with one thread, with null-move
+     *  pruning, late-move reductions, and futility pruning enabled
+     *  according to bits 0, 1, and 2 of PRUNING. */
+    static AI searcher(Piece side, int depth, int pruning) {
+        AI ai = new AI(side, null);
+        ai.setTableSize(1);
+        ai.setTimeLimit(0);
+        ai.setDepthLimit(depth);
+        ai.setNullMovePruning((pruning & 1) != 0);
+        ai.setReductions((pruning & 2) != 0);
+        ai.setFutilityPruning((pruning & 4) != 0);
+        return ai;
+    }
+
+    /** A fixed-depth search takes the king's escape when it has one, and
+     *  blocks it when the opponent is to move, with every combination of
+     *  pruning methods. */
+    @Test public void findMoveTest() {
+        for (int pruning = 0; pruning < 8; pruning += 1) {
+            Board b = board('W', ESCAPE_POSITION);
+            AI white = searcher(Piece.WHITE, 4, pruning);
+            assertEquals("pruning " + pruning, Move.mv("d7-9"),
+                         white.findMove(b));
+            white.close();
+
+            b = board('B', ESCAPE_POSITION);
+            AI black = searcher(Piece.BLACK, 4, pruning);
+            Move block = black.findMove(b);
+            assertTrue("pruning " + pruning + ": " + block,
+                       block.to() == Square.sq("d8")
+                       || block.to() == Square.sq("d9"));
+            black.close();
+        }
+    }
+
+    /** The statistics of a search, with one thread and with two, count
+     *  nodes and probes consistently. */
+    @Test public void searchStatsTest() {
+        for (int threads = 1; threads <= 2; threads += 1) {
+            AI ai = searcher(Piece.WHITE, 4, 7);
+            ai.setThreads(threads);
+            assertNotNull(ai.findMove(new Board()));
+            SearchStats stats = ai.searchStats();
+            assertEquals(4, stats.depth());
+            assertTrue(stats.nodes() > 0);
+            assertTrue(stats.quiescenceNodes() > 0);
+            assertTrue(stats.nodes() >= stats.quiescenceNodes());
+            assertTrue(stats.probes() > 0);
+            assertTrue(stats.hits() <= stats.probes());
+            ai.close();
+        }
+    }
+}
@@ -3,6 +3,8 @@ package tablut;
 import java.io.InputStream;
 import java.io.IOException;
 
+import ucb.util.CommandArgs;
+
 /** Miscellaneous utilties.
  *  @author P. N. Hilfinger */
 
@@ -14,6 +16,70 @@ class Utils {
         return new IllegalArgumentException(String.format(msg, args));
     }
 
+    /** Return the integer value of option NAME in OPTIONS, or DFLT if it
+     *  is absent.  Raises a NumberFormatException if the value is too
+     *  large. */
+    static int intOption(CommandArgs options, String name, int dflt) {
+        if (options.contains(name)) {
+            return Integer.parseInt(options.getFirst(name));
+        }
+        return dflt;
+    }
+
+    /** Return the long integer value of option NAME in OPTIONS, or DFLT
+     *  if it is absent.  Raises a NumberFormatException if the value is
+     *  too large. */
+    static long longOption(CommandArgs options, String name, long dflt) {
+        if (options.contains(name)) {
+            return Long.parseLong(options.getFirst(name));
+        }
+        return dflt;
+    }
+
+    /** Return true iff S is a non-empty string of the decimal digits
+     *  0-9. */
+    static boolean isNumeral(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return !s.isEmpty();
+    }
+
+    /** Store the words of LINE, which are separated by whitespace as for
+     *  the regular expression \s+, in WORDS, setting its remaining
+     *  elements to null.  LINE must be non-empty, with no leading or
+     *  trailing whitespace.  Return the number of words, or -1 if there are
+     *  more than WORDS.length. */
+    static int split(String line, String[] words) {
+        int n, start;
+        n = start = 0;
+        for (int i = 0; i <= line.length(); i += 1) {
+            if (i == line.length() || isSpace(line.charAt(i))) {
+                if (i > start) {
+                    if (n == words.length) {
+                        return -1;
+                    }
+                    words[n] = line.substring(start, i);
+                    n += 1;
+                }
+                start = i + 1;
+            }
+        }
+        for (int k = n; k < words.length; k += 1) {
+            words[k] = null;
+        }
+        return n;
+    }
+
+    /** Return true iff C is a whitespace character, as for the regular
+     *  expression \s. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+    }
+
     /** Report a fatal error and exit.  MSG and ARGS are as for String.format
      *  and define a message string. */
     static void fatal(String msg, Object... args) {
@@ -32,4 +98,8 @@ class Utils {
         return result;
     }
 
+    /** Nanoseconds in a millisecond and in a second. */
+    static final long NANOS_PER_MILLI = 1000000,
+        NANOS_PER_SECOND = 1000000000;
+
 }